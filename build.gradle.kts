@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "ch.epfl.chacun.server"
@@ -26,6 +27,13 @@ sourceSets {
             setSrcDirs(listOf("test"))
         }
     }
+
+    // Kept apart from src, which would otherwise compile the benchmarks with the server
+    jmh {
+        java {
+            setSrcDirs(listOf("jmh"))
+        }
+    }
 }
 
 var ENABLE_PREVIEW = "--enable-preview"
@@ -43,6 +51,15 @@ tasks.withType<JavaExec>().configureEach {
     jvmArgs(ENABLE_PREVIEW)
 }
 
+// Run with ./gradlew jmh, the results are written to build/results/jmh
+jmh {
+    jmhVersion.set("1.37")
+    jvmArgs.add(ENABLE_PREVIEW)
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+}
+
 tasks.jar {
     manifest {
         attributes(
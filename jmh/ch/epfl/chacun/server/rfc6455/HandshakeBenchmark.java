@@ -0,0 +1,63 @@
+package ch.epfl.chacun.server.rfc6455;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the number of handshake responses built per second on a single core.
+ * <p>
+ * The accept key is computed by {@code writeAcceptKey}, which is only reachable through the response.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+public class HandshakeBenchmark {
+
+    /**
+     * The upgrade request of the sample handshake of RFC 6455 section 1.3.
+     */
+    private final HandshakeRequest request = new HandshakeRequest("GET", "/chat", "HTTP/1.1", Map.of(
+            "host", "server.example.com",
+            "upgrade", "websocket",
+            "connection", "Upgrade",
+            "sec-websocket-key", "dGhlIHNhbXBsZSBub25jZQ==",
+            "sec-websocket-version", "13",
+            "sec-websocket-extensions", "permessage-deflate; client_max_window_bits"));
+
+    /**
+     * The value of the Sec-WebSocket-Extensions header sent back when permessage-deflate is negotiated.
+     */
+    private final String extensions = "permessage-deflate; client_max_window_bits=15";
+
+    /**
+     * Build the bare response, which is dominated by the SHA-1 digest of the accept key.
+     *
+     * @return the response, so that it is not eliminated as dead code
+     */
+    @Benchmark
+    public ByteBuffer upgrade() {
+        return RFC6455.upgradeToWebsocket(request);
+    }
+
+    /**
+     * Build the response carrying the negotiated extension and subprotocol.
+     *
+     * @return the response, so that it is not eliminated as dead code
+     */
+    @Benchmark
+    public ByteBuffer upgradeWithExtensionsAndSubprotocol() {
+        return RFC6455.upgradeToWebsocket(request, extensions, "chacun.binary");
+    }
+}
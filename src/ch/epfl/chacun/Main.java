@@ -1,5 +1,7 @@
 package ch.epfl.chacun;
 
+import ch.epfl.chacun.server.transport.TransportType;
+
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -7,7 +9,9 @@ import java.util.logging.Logger;
 public class Main {
     public static void main(String[] args) {
         try {
-            new WebSocketServer("0.0.0.0", 3000);
+            // The transport can be chosen with -Dchacun.transport=VIRTUAL_THREADS or SELECTOR
+            TransportType transport = TransportType.valueOf(System.getProperty("chacun.transport", "NIO2"));
+            new WebSocketServer("0.0.0.0", 3000, transport);
             // Prevent the program from exiting
             new CountDownLatch(1).await();
         } catch (Exception ex) {
@@ -1,14 +1,28 @@
 package ch.epfl.chacun;
 
+import ch.epfl.chacun.logic.BinaryProtocol;
 import ch.epfl.chacun.logic.GameActionData;
 import ch.epfl.chacun.logic.GameLogic;
 import ch.epfl.chacun.logic.GamePlayerData;
 import ch.epfl.chacun.logic.ServerAction;
-import ch.epfl.chacun.server.rfc6455.CloseStatusCode;
+import ch.epfl.chacun.server.metrics.LatencyHistogram;
+import ch.epfl.chacun.server.metrics.MetricsRegistry;
+import ch.epfl.chacun.server.rfc6455.OpCode;
+import ch.epfl.chacun.server.rfc6455.PerMessageDeflateConfig;
+import ch.epfl.chacun.server.transport.TransportType;
+import ch.epfl.chacun.server.websocket.AdmissionConfig;
 import ch.epfl.chacun.server.websocket.AsyncWebSocketServer;
+import ch.epfl.chacun.server.websocket.RateLimit;
+import ch.epfl.chacun.server.websocket.ServerConfig;
 import ch.epfl.chacun.server.websocket.WebSocketChannel;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The WebSocket server for the ChaCuN game.
@@ -23,15 +37,47 @@ public class WebSocketServer extends AsyncWebSocketServer<GamePlayerData> {
      */
     public static final int MAX_MESSAGE_SIZE = 512;
 
+    /**
+     * The maximum size of a message sent by a client in several fragments.
+     */
+    public static final int MAX_FRAGMENTED_MESSAGE_SIZE = 8 * MAX_MESSAGE_SIZE;
+
     /**
      * The interval in milliseconds at which the server sends ping messages to clients.
      */
     private static final int PING_INTERVAL = 60 * 1000; // 1 minute
 
+    /**
+     * The class of the chat messages in the inbound rate limits.
+     */
+    public static final int CHAT_MESSAGES = 0;
+
+    /**
+     * The class of every other message in the inbound rate limits, game actions included.
+     */
+    public static final int GAME_ACTIONS = 1;
+
+    /**
+     * The prefix of the chat messages sent by a client.
+     */
+    private static final byte[] CHAT_PREFIX = STR."\{ServerAction.GAMEMSG}.".getBytes(StandardCharsets.US_ASCII);
+
     /**
      * The game logic of the server.
      */
-    private final GameLogic gameLogic = new GameLogic();
+    private final GameLogic gameLogic;
+
+    /**
+     * The time spent parsing and applying an action of a player.
+     */
+    private final LatencyHistogram gameActionLatency;
+
+    /**
+     * The counters of the denials sent to the players, by denial action and by reason.
+     * <p>
+     * The reasons are a small fixed set, so each counter is looked up in the registry only once.
+     */
+    private final Map<ServerAction, Map<String, LongAdder>> denials = new EnumMap<>(ServerAction.class);
 
     /**
      * Create a new WebSocket server with the given hostname and port.
@@ -40,26 +86,94 @@ public class WebSocketServer extends AsyncWebSocketServer<GamePlayerData> {
      * @throws IOException If an I/O error occurs.
      */
     public WebSocketServer(String hostname, int port) throws IOException {
-        super(hostname, port, MAX_MESSAGE_SIZE, PING_INTERVAL);
+        this(hostname, port, TransportType.NIO2);
+    }
+
+    /**
+     * Create a new WebSocket server with the given hostname and port, running on the given transport.
+     * @param hostname  The hostname of the server.
+     * @param port      The port of the server.
+     * @param transport The transport the server runs on.
+     * @throws IOException If an I/O error occurs.
+     */
+    public WebSocketServer(String hostname, int port, TransportType transport) throws IOException {
+        this(hostname, port, transport, new GameLogic(), new MetricsRegistry());
+    }
+
+    /**
+     * Create a new WebSocket server running the given game logic, whose metrics are registered beforehand.
+     * @param hostname  The hostname of the server.
+     * @param port      The port of the server.
+     * @param transport The transport the server runs on.
+     * @param gameLogic The game logic of the server.
+     * @param metrics   The registry of the metrics of the server.
+     * @throws IOException If an I/O error occurs.
+     */
+    private WebSocketServer(String hostname, int port, TransportType transport, GameLogic gameLogic,
+                            MetricsRegistry metrics) throws IOException {
+        super(ServerConfig.builder(hostname, port)
+                .maxBufferSize(MAX_MESSAGE_SIZE)
+                .maxMessageSize(MAX_FRAGMENTED_MESSAGE_SIZE)
+                .pingInterval(PING_INTERVAL)
+                .perMessageDeflate(PerMessageDeflateConfig.DEFAULT)
+                // Clients offering the binary protocol speak it, the others keep the text protocol
+                .subprotocols(BinaryProtocol.SUBPROTOCOL)
+                .batchWrites(true)
+                .admission(AdmissionConfig.DEFAULT)
+                // A player chats a few times per second at most, while a turn sends several actions in a row
+                .inboundRateLimits(new RateLimit(5, 10), new RateLimit(10, 20))
+                .tcpNoDelay(true)
+                .transport(transport)
+                .build(), registerGameMetrics(metrics, gameLogic));
+        this.gameLogic = gameLogic;
+        this.gameActionLatency = metrics.histogram(STAGE_LATENCY, "stage", "game_action");
+        for (ServerAction action : ServerAction.values()) {
+            if (action.isDenial())
+                denials.put(action, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Register the metrics of the game logic.
+     * @param metrics   The registry of the metrics of the server.
+     * @param gameLogic The game logic of the server.
+     * @return The registry, to be passed to the server.
+     */
+    private static MetricsRegistry registerGameMetrics(MetricsRegistry metrics, GameLogic gameLogic) {
+        metrics.gauge("chacun_games_active", gameLogic::activeGames);
+        metrics.gauge("chacun_lobbies_active", gameLogic::activeLobbies);
+        return metrics;
+    }
+
+    /**
+     * Sort a message into the chat messages or the game actions, from its first bytes only,
+     * whether the message is in the text or in the binary protocol.
+     * @param opCode  The opcode of the message.
+     * @param message The data of the message.
+     * @return The class of the message in the inbound rate limits.
+     */
+    @Override
+    protected int classifyMessage(OpCode opCode, ByteBuffer message) {
+        if (opCode == OpCode.BINARY)
+            return message.hasRemaining() && message.get(message.position()) == ServerAction.GAMEMSG.code()
+                    ? CHAT_MESSAGES : GAME_ACTIONS;
+        return startsWith(message, CHAT_PREFIX) ? CHAT_MESSAGES : GAME_ACTIONS;
     }
 
     @Override
     protected void onMessage(WebSocketChannel<GamePlayerData> ws, String message) {
+        long start = System.nanoTime();
         GameActionData action = gameLogic.parseAndApplyAction(message, ws.getContext());
-        if (action != null) {
-            // Keep the context attached to the WebSocket channel for future use
-            if (action.ctx() != null) {
-                ws.subscribe(action.ctx().gameName()); // Subscribe to the game events
-                ws.attachContext(action.ctx());
-            }
-            broadcastIfNeededOrSend(ws, action);
-        }
+        gameActionLatency.recordSince(start);
+        handleResponse(ws, action);
     }
 
     @Override
     protected void onBinary(WebSocketChannel<GamePlayerData> ws, byte[] message) {
-        // Binary messages are not supported
-        ws.close(CloseStatusCode.UNSUPPORTED_DATA, "Binary messages are not supported");
+        long start = System.nanoTime();
+        GameActionData action = gameLogic.decodeAndApplyAction(ByteBuffer.wrap(message), ws.getContext());
+        gameActionLatency.recordSince(start);
+        handleResponse(ws, action);
     }
 
     @Override
@@ -72,14 +186,69 @@ public class WebSocketServer extends AsyncWebSocketServer<GamePlayerData> {
         super.onClose(ws);
     }
 
+    /**
+     * Count the denials, attach the context of the player and send the response to an action.
+     * @param ws     The WebSocket channel of the player who sent the action.
+     * @param action The response to the action, or null if there is none.
+     */
+    private void handleResponse(WebSocketChannel<GamePlayerData> ws, GameActionData action) {
+        if (action != null) {
+            if (action.action().isDenial())
+                denialCounter(action).increment();
+            // Keep the context attached to the WebSocket channel for future use
+            if (action.ctx() != null) {
+                ws.subscribe(action.ctx().gameName()); // Subscribe to the game events
+                ws.attachContext(action.ctx());
+            }
+            broadcastIfNeededOrSend(ws, action);
+        }
+    }
+
+    /**
+     * Returns the counter of the denials with the same action and reason as the given one.
+     * @param denial The denial sent to a player.
+     * @return The counter of the denial.
+     */
+    private LongAdder denialCounter(GameActionData denial) {
+        Map<String, LongAdder> counters = denials.get(denial.action());
+        String reason = String.valueOf(denial.data());
+        LongAdder counter = counters.get(reason);
+        if (counter == null)
+            counter = counters.computeIfAbsent(reason, _ -> getMetrics().counter("chacun_denials_total",
+                    "action", denial.action().name(), "reason", reason));
+        return counter;
+    }
+
+    /**
+     * Check whether the remaining bytes of a buffer start with the given prefix, without moving its position.
+     * @param buffer The buffer to check.
+     * @param prefix The expected prefix.
+     * @return True if the buffer starts with the prefix, false otherwise.
+     */
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.remaining() < prefix.length) return false;
+        int start = buffer.position();
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(start + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
     /**
      * Broadcast the action to the game if needed or send it directly to the player.
+     * <p>
+     * Chat messages are dropped for the players that do not keep up, the game actions never are.
+     * Each player receives the action in the protocol it speaks.
      * @param ws    The WebSocket channel to send the action to.
      * @param action The action to send.
      */
     private void broadcastIfNeededOrSend(WebSocketChannel<GamePlayerData> ws, GameActionData action) {
         if (action.shouldBeBroadcasted())
-            ws.broadcast(ws.getContext().gameName(), action.toGameActionString());
+            ws.broadcast(ws.getContext().gameName(), action.toGameActionString(),
+                    BinaryProtocol.SUBPROTOCOL, () -> BinaryProtocol.encode(action),
+                    action.action() == ServerAction.GAMEMSG);
+        else if (BinaryProtocol.SUBPROTOCOL.equals(ws.getSubprotocol()))
+            ws.sendBinary(BinaryProtocol.encode(action));
         else
             ws.sendText(action.toGameActionString());
     }
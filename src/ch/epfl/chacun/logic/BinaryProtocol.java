@@ -0,0 +1,168 @@
+package ch.epfl.chacun.logic;
+
+import ch.epfl.chacun.game.Base32;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The compact binary form of the game actions, spoken by the clients selecting its subprotocol.
+ * <p>
+ * A message starts with the one-byte {@link ServerAction#code() code} of its action, followed by its data:
+ * <ul>
+ *     <li>the action of a player ({@link ServerAction#GAMEACTION} and {@link ServerAction#GAMEACTION_ACCEPT})
+ *     is a single unsigned short, holding the number of Base32 symbols of the action in its 6 high bits
+ *     and the bits of the action in its 10 low bits;</li>
+ *     <li>the data of any other action is a sequence of strings, each encoded in UTF-8 after its length
+ *     as an unsigned short, which stand for the comma-separated values of the text protocol.</li>
+ * </ul>
+ * Since both protocols can be spoken in the same game, the strings may not contain
+ * the separators of the text protocol.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class BinaryProtocol {
+    private BinaryProtocol() {
+    }
+
+    /**
+     * The name of the subprotocol selecting the binary protocol during the opening handshake.
+     */
+    public static final String SUBPROTOCOL = "chacun.binary";
+
+    /**
+     * The number of bits of a player action in its encoded form.
+     */
+    private static final int ACTION_BITS = 10;
+
+    /**
+     * The mask of the bits of a player action in its encoded form.
+     */
+    private static final int ACTION_MASK = (1 << ACTION_BITS) - 1;
+
+    /**
+     * The number of bits of a Base32 symbol.
+     */
+    private static final int SYMBOL_BITS = 5;
+
+    /**
+     * Decode the action of a binary message, leaving the buffer positioned on its data.
+     *
+     * @param message The binary message.
+     * @return The action of the message, or {@link ServerAction#UNKNOWN} if the message is empty or the code unknown.
+     */
+    public static ServerAction decodeAction(ByteBuffer message) {
+        if (!message.hasRemaining()) return ServerAction.UNKNOWN;
+        return ServerAction.fromCode(Byte.toUnsignedInt(message.get()));
+    }
+
+    /**
+     * Decode the data of a binary message, following its action.
+     * <p>
+     * The player actions are turned back into the Base32 symbols expected by the game,
+     * the other data into the values the text protocol would have carried.
+     *
+     * @param action  The action of the message.
+     * @param message The binary message, positioned on its data.
+     * @return The values of the data, or null if the data is malformed.
+     */
+    public static String[] decodeData(ServerAction action, ByteBuffer message) {
+        try {
+            if (!message.hasRemaining()) return new String[0];
+            if (isPlayerAction(action)) {
+                int encoded = Short.toUnsignedInt(message.getShort());
+                int symbols = encoded >>> ACTION_BITS;
+                int bits = encoded & ACTION_MASK;
+                if (message.hasRemaining() || symbols < 1 || symbols > 2 || bits >>> symbols * SYMBOL_BITS != 0)
+                    return null;
+                return new String[]{symbols == 1 ? Base32.encodeBits5(bits) : Base32.encodeBits10(bits)};
+            }
+            List<String> values = new ArrayList<>();
+            while (message.hasRemaining()) {
+                int length = Short.toUnsignedInt(message.getShort());
+                if (length > message.remaining()) return null;
+                byte[] value = new byte[length];
+                message.get(value);
+                for (byte b : value) {
+                    // The separators of the text protocol are ASCII, they never appear within a multibyte character
+                    if (b == '.' || b == ',') return null;
+                }
+                values.add(new String(value, StandardCharsets.UTF_8));
+            }
+            return values.toArray(String[]::new);
+        } catch (BufferUnderflowException _) {
+            return null;
+        }
+    }
+
+    /**
+     * Encode an action to send to a player or broadcast to a game.
+     *
+     * @param action The action to encode.
+     * @return The binary message.
+     */
+    public static byte[] encode(GameActionData action) {
+        byte[] data = action.data() == null ? null : action.data().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer message = ByteBuffer.allocate(encodedLength(action.action(), data));
+        write(action.action(), data, message);
+        return message.array();
+    }
+
+    /**
+     * Returns the size of the binary message of an action.
+     *
+     * @param action The action of the message.
+     * @param data   The UTF-8 encoded data of the action in the text protocol, or null if none.
+     * @return The size of the message (in bytes).
+     */
+    private static int encodedLength(ServerAction action, byte[] data) {
+        if (data == null) return Byte.BYTES;
+        if (isPlayerAction(action)) return Byte.BYTES + Short.BYTES;
+        int values = 1;
+        for (byte b : data) {
+            if (b == ',') values++;
+        }
+        // Each separator is replaced by the length of the next value
+        return Byte.BYTES + data.length - (values - 1) + values * Short.BYTES;
+    }
+
+    /**
+     * Write the binary message of an action.
+     *
+     * @param action The action of the message.
+     * @param data   The UTF-8 encoded data of the action in the text protocol, or null if none.
+     * @param buffer The buffer to write the message into.
+     */
+    private static void write(ServerAction action, byte[] data, ByteBuffer buffer) {
+        buffer.put(action.code());
+        if (data == null) return;
+        if (isPlayerAction(action)) {
+            // The symbols of the action are ASCII, so each of them is a single byte
+            int symbols = data.length;
+            int bits = Base32.decode(new String(data, StandardCharsets.US_ASCII));
+            buffer.putShort((short) (symbols << ACTION_BITS | bits));
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i <= data.length; i++) {
+            if (i == data.length || data[i] == ',') {
+                buffer.putShort((short) (i - start));
+                buffer.put(data, start, i - start);
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Whether the data of an action is the action of a player.
+     *
+     * @param action The action.
+     * @return True if the data of the action is a player action, false otherwise.
+     */
+    private static boolean isPlayerAction(ServerAction action) {
+        return action == ServerAction.GAMEACTION || action == ServerAction.GAMEACTION_ACCEPT;
+    }
+}
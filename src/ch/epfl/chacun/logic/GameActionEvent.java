@@ -0,0 +1,37 @@
+package ch.epfl.chacun.logic;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event emitted when a player has sent an action to an ongoing game.
+ * <p>
+ * Actions are sent at the pace of the players, so every one of them is recorded.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+@Name("ch.epfl.chacun.GameAction")
+@Label("Game Action")
+@Description("An action of a player has been applied to an ongoing game, or denied")
+@Category({"ChaCuN", "Game"})
+@StackTrace(false)
+final class GameActionEvent extends Event {
+
+    @Label("Game")
+    String game;
+
+    @Label("Player")
+    String player;
+
+    @Label("Action Type")
+    @Description("The action the game expected when the action was received")
+    String actionType;
+
+    @Label("Outcome")
+    @Description("ACCEPTED, or the reason the action has been denied")
+    String outcome;
+}
@@ -0,0 +1,27 @@
+package ch.epfl.chacun.logic;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event emitted when an ongoing game has been downgraded to a lobby.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+@Name("ch.epfl.chacun.GameDowngraded")
+@Label("Game Downgraded")
+@Description("An ongoing game has been cancelled and its players returned to a lobby")
+@Category({"ChaCuN", "Game"})
+@StackTrace(false)
+final class GameDowngradedEvent extends Event {
+
+    @Label("Game")
+    String game;
+
+    @Label("Players")
+    int players;
+}
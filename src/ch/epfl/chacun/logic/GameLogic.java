@@ -1,8 +1,9 @@
 package ch.epfl.chacun.logic;
 
 import ch.epfl.chacun.game.Preconditions;
+import ch.epfl.chacun.server.log.Log;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,6 +15,11 @@ import java.util.Map;
  */
 public class GameLogic {
 
+    /**
+     * The log of the actions received from the players.
+     */
+    private static final Log LOG = Log.get("game.actions");
+
     /**
      * The minimum number of players required to start a game.
      */
@@ -39,17 +45,48 @@ public class GameLogic {
      */
     public GameActionData parseAndApplyAction(String action, GamePlayerData context) {
         String[] payload = action.split("\\.");
-        System.out.println(Arrays.toString(payload));
         ServerAction serverAction = ServerAction.fromString(payload[0]);
         if (serverAction != ServerAction.UNKNOWN) {
-            String gameName = context != null ? context.gameName() : null;
-            String username = context != null ? context.username() : null;
             String[] data = payload.length > 1 ? payload[1].split(",") : new String[0];
-            return applyAction(serverAction, data, gameName, username);
+            return applyAction(serverAction, data, context);
+        }
+        return null;
+    }
+
+    /**
+     * Decode and apply an action received by the WebSocket in the binary protocol.
+     *
+     * @param message The binary message to decode and apply.
+     * @param context The context of the player sending the action.
+     * @return The response action to send back to the player or broadcast to the game,
+     * or null if the message is malformed.
+     * @see BinaryProtocol
+     */
+    public GameActionData decodeAndApplyAction(ByteBuffer message, GamePlayerData context) {
+        ServerAction serverAction = BinaryProtocol.decodeAction(message);
+        if (serverAction != ServerAction.UNKNOWN) {
+            String[] data = BinaryProtocol.decodeData(serverAction, message);
+            if (data != null)
+                return applyAction(serverAction, data, context);
         }
         return null;
     }
 
+    /**
+     * Apply an action received from a player, whatever the protocol it has been received in.
+     *
+     * @param action  The action to apply.
+     * @param data    The data of the action.
+     * @param context The context of the player sending the action.
+     * @return The response action to send back to the player or broadcast to the game.
+     */
+    private GameActionData applyAction(ServerAction action, String[] data, GamePlayerData context) {
+        String gameName = context != null ? context.gameName() : null;
+        LOG.debug("Action received", "action", action, "game", gameName);
+        String username = context != null ? context.username() : null;
+        return applyAction(action, data, gameName, username);
+    }
+
     /**
      * Try to apply the action to a lobby or an ongoing game and determines the response to send.
      *
@@ -153,6 +190,24 @@ public class GameLogic {
         return null;
     }
 
+    /**
+     * Returns the number of games currently ongoing.
+     *
+     * @return The number of ongoing games.
+     */
+    public int activeGames() {
+        return games.size();
+    }
+
+    /**
+     * Returns the number of lobbies waiting for their game to start.
+     *
+     * @return The number of open lobbies.
+     */
+    public int activeLobbies() {
+        return lobbies.size();
+    }
+
     /**
      * Cancel a game and return the players to the lobby.
      *
@@ -160,11 +215,18 @@ public class GameLogic {
      * @return The lobby that has been created.
      */
     private GameLobby downgradeGameToLobby(OnGoingGame game) {
+        GameDowngradedEvent event = new GameDowngradedEvent();
+        event.begin();
         String gameName = game.getName();
         Preconditions.checkArgument(games.containsKey(gameName));
         GameLobby newLobby = new GameLobby(gameName, game.getPlayers().values());
         lobbies.put(gameName, newLobby);
         games.remove(gameName);
+        if (event.shouldCommit()) {
+            event.game = gameName;
+            event.players = newLobby.getPlayers().size();
+            event.commit();
+        }
         return newLobby;
     }
 
@@ -175,9 +237,16 @@ public class GameLogic {
      * @return The game that has been started.
      */
     private OnGoingGame startGameWithLobby(GameLobby lobby) {
+        GameStartedEvent event = new GameStartedEvent();
+        event.begin();
         OnGoingGame newGame = lobby.startGame();
         games.put(lobby.getGameName(), newGame);
         lobbies.remove(lobby.getGameName());
+        if (event.shouldCommit()) {
+            event.game = lobby.getGameName();
+            event.players = newGame.getPlayers().size();
+            event.commit();
+        }
         return newGame;
     }
 }
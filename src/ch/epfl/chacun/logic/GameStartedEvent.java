@@ -0,0 +1,27 @@
+package ch.epfl.chacun.logic;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event emitted when a lobby has become an ongoing game.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+@Name("ch.epfl.chacun.GameStarted")
+@Label("Game Started")
+@Description("A lobby has been turned into an ongoing game")
+@Category({"ChaCuN", "Game"})
+@StackTrace(false)
+final class GameStartedEvent extends Event {
+
+    @Label("Game")
+    String game;
+
+    @Label("Players")
+    int players;
+}
@@ -71,6 +71,28 @@ public class OnGoingGame {
      * @return the result of the action
      */
     public GameActionData applyAction(String action, String username) {
+        GameActionEvent event = new GameActionEvent();
+        event.begin();
+        GameState.Action actionType = gameState.nextAction();
+        GameActionData result = applyActionOfPlayer(action, username);
+        if (event.shouldCommit()) {
+            event.game = gameName;
+            event.player = username;
+            event.actionType = actionType.name();
+            event.outcome = result.action() == ServerAction.GAMEACTION_ACCEPT ? "ACCEPTED" : result.data();
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Apply an action to the game if it is the turn of the player who sent it.
+     *
+     * @param action   the action to apply
+     * @param username the username of the player who sent the action
+     * @return the result of the action
+     */
+    private GameActionData applyActionOfPlayer(String action, String username) {
         // VAC NET will ban you if you're trying to cheat :/
         if (players.get(gameState.currentPlayer()).equals(username)) {
             ActionEncoder.StateAction stateAction = ActionEncoder.decodeAndApply(gameState, action);
@@ -1,5 +1,7 @@
 package ch.epfl.chacun.logic;
 
+import ch.epfl.chacun.game.Preconditions;
+
 /**
  * Represents the possible actions that can be sent by a game client.
  *
@@ -7,17 +9,64 @@ package ch.epfl.chacun.logic;
  * @author Simon Lefort (sciper: 371918)
  */
 public enum ServerAction {
-    UNKNOWN,
-    GAMEJOIN,
-    GAMEJOIN_ACCEPT,
-    GAMEJOIN_DENY,
-    GAMELEAVE,
-    GAMEACTION,
-    GAMEACTION_ACCEPT,
-    GAMEACTION_DENY,
-    GAMEEND,
-    GAMEMSG,
-    GAMEMSG_DENY;
+    UNKNOWN(0),
+    GAMEJOIN(1),
+    GAMEJOIN_ACCEPT(2),
+    GAMEJOIN_DENY(3),
+    GAMELEAVE(4),
+    GAMEACTION(5),
+    GAMEACTION_ACCEPT(6),
+    GAMEACTION_DENY(7),
+    GAMEEND(8),
+    GAMEMSG(9),
+    GAMEMSG_DENY(10);
+
+    /**
+     * The actions indexed by their code, with null for the unused codes.
+     */
+    private static final ServerAction[] BY_CODE = new ServerAction[256];
+
+    static {
+        for (ServerAction action : values()) {
+            // Two actions sharing a code would be indistinguishable on the wire
+            Preconditions.checkArgument(BY_CODE[action.code] == null);
+            BY_CODE[action.code] = action;
+        }
+    }
+
+    /**
+     * The code of the action in the binary protocol, which must never change once clients rely on it.
+     */
+    private final int code;
+
+    /**
+     * Create an action with the given code in the binary protocol.
+     *
+     * @param code The code of the action, between 0 and 255.
+     */
+    ServerAction(int code) {
+        this.code = code;
+    }
+
+    /**
+     * Returns the code of the action in the binary protocol.
+     *
+     * @return The code of the action.
+     */
+    public byte code() {
+        return (byte) code;
+    }
+
+    /**
+     * Convert a code of the binary protocol to a ServerAction.
+     *
+     * @param code The code to convert.
+     * @return The corresponding ServerAction, or {@link #UNKNOWN} if no action has this code.
+     */
+    public static ServerAction fromCode(int code) {
+        ServerAction action = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        return action != null ? action : ServerAction.UNKNOWN;
+    }
 
     /**
      * Convert a string to a ServerAction.
@@ -33,6 +82,18 @@ public enum ServerAction {
         }
     }
 
+    /**
+     * Check whether the action denies a request of the client.
+     *
+     * @return True if the action is a denial, false otherwise.
+     */
+    public boolean isDenial() {
+        return switch (this) {
+            case GAMEJOIN_DENY, GAMEACTION_DENY, GAMEMSG_DENY -> true;
+            default -> false;
+        };
+    }
+
     @Override
     public String toString() {
         return this.name();
@@ -0,0 +1,165 @@
+package ch.epfl.chacun.server.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-classed pool of direct byte buffers.
+ * <p>
+ * Buffers are acquired from the smallest size class able to hold the requested size,
+ * and must be explicitly released once the read or write using them has completed.
+ * Requests larger than the biggest size class are served by a heap buffer which is never pooled.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class BufferPool {
+
+    /**
+     * The default size classes of the pool (in bytes).
+     */
+    private static final int[] DEFAULT_SIZE_CLASSES = {128, 512, 4096, 65536};
+
+    /**
+     * The default maximum amount of memory kept idle in each size class (in bytes).
+     */
+    private static final int DEFAULT_MAX_IDLE_BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+    /**
+     * The capacity of the buffers of each size class, in ascending order.
+     */
+    private final int[] sizeClasses;
+
+    /**
+     * The idle buffers of each size class.
+     */
+    private final Queue<ByteBuffer>[] idleBuffers;
+
+    /**
+     * The number of idle buffers of each size class.
+     */
+    private final AtomicInteger[] idleCounts;
+
+    /**
+     * The maximum number of idle buffers kept by each size class.
+     */
+    private final int[] maxIdleCounts;
+
+    /**
+     * The number of acquisitions served by an idle buffer.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of acquisitions that required a new allocation.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a new buffer pool with the default size classes.
+     */
+    public BufferPool() {
+        this(DEFAULT_SIZE_CLASSES, DEFAULT_MAX_IDLE_BYTES_PER_CLASS);
+    }
+
+    /**
+     * Create a new buffer pool with the given size classes.
+     *
+     * @param sizeClasses             the capacity of the buffers of each size class, in ascending order
+     * @param maxIdleBytesPerClass    the maximum amount of memory kept idle in each size class (in bytes)
+     * @throws IllegalArgumentException if the size classes are not strictly ascending and positive
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int[] sizeClasses, int maxIdleBytesPerClass) {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (sizeClasses[i] <= 0 || (i > 0 && sizeClasses[i] <= sizeClasses[i - 1]))
+                throw new IllegalArgumentException("Size classes must be positive and strictly ascending");
+        }
+        this.sizeClasses = sizeClasses.clone();
+        this.idleBuffers = (Queue<ByteBuffer>[]) new Queue<?>[sizeClasses.length];
+        this.idleCounts = new AtomicInteger[sizeClasses.length];
+        this.maxIdleCounts = new int[sizeClasses.length];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            idleBuffers[i] = new ConcurrentLinkedQueue<>();
+            idleCounts[i] = new AtomicInteger();
+            maxIdleCounts[i] = Math.max(1, maxIdleBytesPerClass / sizeClasses[i]);
+        }
+    }
+
+    /**
+     * Find the index of the smallest size class able to hold the given size.
+     *
+     * @param size the size to hold (in bytes)
+     * @return the index of the size class, or -1 if the size is too large to be pooled
+     */
+    private int sizeClassOf(int size) {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (size <= sizeClasses[i]) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Acquire a cleared buffer able to hold at least the given number of bytes.
+     * <p>
+     * The returned buffer must be given back using {@link #release(ByteBuffer)}.
+     *
+     * @param size the minimum capacity of the buffer (in bytes)
+     * @return the acquired buffer, with its limit set to the requested size
+     */
+    public ByteBuffer acquire(int size) {
+        int sizeClass = sizeClassOf(size);
+        if (sizeClass == -1) {
+            misses.increment();
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buffer = idleBuffers[sizeClass].poll();
+        if (buffer != null) {
+            idleCounts[sizeClass].decrementAndGet();
+            hits.increment();
+        } else {
+            misses.increment();
+            buffer = ByteBuffer.allocateDirect(sizeClasses[sizeClass]);
+        }
+        return buffer.clear().limit(size);
+    }
+
+    /**
+     * Give a buffer back to the pool.
+     * <p>
+     * Buffers that were not allocated by a size class, or that would exceed the
+     * idle memory of their size class, are left to the garbage collector.
+     *
+     * @param buffer the buffer to release
+     */
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.isReadOnly()) return;
+        int sizeClass = sizeClassOf(buffer.capacity());
+        if (sizeClass == -1 || sizeClasses[sizeClass] != buffer.capacity()) return;
+        if (idleCounts[sizeClass].incrementAndGet() <= maxIdleCounts[sizeClass]) {
+            idleBuffers[sizeClass].offer(buffer);
+        } else {
+            idleCounts[sizeClass].decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of acquisitions served by an idle buffer.
+     *
+     * @return the number of pool hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions that required a new allocation.
+     *
+     * @return the number of pool misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,80 @@
+package ch.epfl.chacun.server.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted buffer acquired from a {@link BufferPool}.
+ * <p>
+ * This allows a single encoded frame to be shared by several pending writes:
+ * each write retains the buffer, and the buffer goes back to the pool once
+ * the last reference has been released.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class PooledBuffer {
+
+    /**
+     * The pool the buffer was acquired from.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The underlying buffer.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The number of references to the buffer.
+     */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    /**
+     * Wrap a buffer acquired from the given pool, with a single reference held by the caller.
+     *
+     * @param pool   the pool the buffer was acquired from
+     * @param buffer the buffer, ready to be read
+     */
+    public PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns a new read-only view of the content of the buffer.
+     *
+     * @return a read-only view of the buffer
+     */
+    public ByteBuffer view() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the number of bytes of the content of the buffer.
+     *
+     * @return the number of bytes of the content
+     */
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Add a reference to the buffer.
+     *
+     * @return this buffer
+     * @throws IllegalStateException if the buffer has already been released
+     */
+    public PooledBuffer retain() {
+        if (refCount.getAndIncrement() <= 0)
+            throw new IllegalStateException("Buffer already released");
+        return this;
+    }
+
+    /**
+     * Remove a reference to the buffer, giving it back to the pool when no reference is left.
+     */
+    public void release() {
+        if (refCount.decrementAndGet() == 0)
+            pool.release(buffer);
+    }
+}
@@ -0,0 +1,276 @@
+package ch.epfl.chacun.server.log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The log of a category of events, such as the frames written or the connections opened.
+ * <p>
+ * Logging an event never blocks on the output: the event is published to a lock-free ring
+ * and written later by a background thread, or dropped if the writer cannot keep up.
+ * An event below the level of its category costs a single volatile read. Arguments that would
+ * be computed or boxed only for the log should still be guarded with {@link #isEnabled(LogLevel)}
+ * on the hot paths.
+ * <p>
+ * Each event may carry up to two fields, such as the id of the connection and the name of the game.
+ * The events below {@link LogLevel#WARN} can be sampled, so that only one in every few is written.
+ * <p>
+ * The default level is set with {@code -Dchacun.log.level}, and the level and the sampling of
+ * a category with {@code -Dchacun.log.<category>.level} and {@code -Dchacun.log.<category>.sample}.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class Log {
+
+    /**
+     * The level of the categories without a level of their own.
+     */
+    private static final LogLevel DEFAULT_LEVEL =
+            LogLevel.fromString(System.getProperty("chacun.log.level"), LogLevel.INFO);
+
+    /**
+     * The log of each category.
+     */
+    private static final ConcurrentMap<String, Log> LOGS = new ConcurrentHashMap<>();
+
+    private final String category;
+
+    /**
+     * The ordinal of the lowest level logged.
+     */
+    private volatile int threshold;
+
+    /**
+     * Only one in this number of events below {@link LogLevel#WARN} is written.
+     */
+    private volatile int sampleEvery;
+
+    /**
+     * The number of sampled events seen so far.
+     */
+    private final AtomicLong sampled = new AtomicLong();
+
+    /**
+     * Create the log of a category, configured from the system properties.
+     *
+     * @param category the category
+     */
+    private Log(String category) {
+        this.category = category;
+        this.threshold = LogLevel.fromString(
+                System.getProperty(STR."chacun.log.\{category}.level"), DEFAULT_LEVEL).ordinal();
+        this.sampleEvery = Math.max(Integer.getInteger(STR."chacun.log.\{category}.sample", 1), 1);
+    }
+
+    /**
+     * Returns the log of a category, created on first use.
+     *
+     * @param category the category, usually the area of the server followed by the kind of event
+     * @return the log of the category
+     */
+    public static Log get(String category) {
+        return LOGS.computeIfAbsent(category, Log::new);
+    }
+
+    /**
+     * Set the lowest level logged in the category.
+     *
+     * @param level the lowest level logged
+     */
+    public void setLevel(LogLevel level) {
+        this.threshold = level.ordinal();
+    }
+
+    /**
+     * Only write one in every {@code sampleEvery} events of the category below {@link LogLevel#WARN}.
+     *
+     * @param sampleEvery the sampling interval, 1 to write every event
+     * @throws IllegalArgumentException if the interval is not positive
+     */
+    public void setSampling(int sampleEvery) {
+        if (sampleEvery <= 0)
+            throw new IllegalArgumentException("The sampling interval must be positive");
+        this.sampleEvery = sampleEvery;
+    }
+
+    /**
+     * Whether the events of the given level are logged in the category.
+     *
+     * @param level the level
+     * @return true if the events are logged, false otherwise
+     */
+    public boolean isEnabled(LogLevel level) {
+        return level.ordinal() >= threshold;
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#TRACE}.
+     *
+     * @param message the message
+     */
+    public void trace(String message) {
+        log(LogLevel.TRACE, message, null, null, null, null, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#TRACE} with a field.
+     *
+     * @param message the message
+     * @param key     the name of the field
+     * @param value   the value of the field
+     */
+    public void trace(String message, String key, Object value) {
+        log(LogLevel.TRACE, message, key, value, null, null, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#TRACE} with two fields.
+     *
+     * @param message the message
+     * @param key1    the name of the first field
+     * @param value1  the value of the first field
+     * @param key2    the name of the second field
+     * @param value2  the value of the second field
+     */
+    public void trace(String message, String key1, Object value1, String key2, Object value2) {
+        log(LogLevel.TRACE, message, key1, value1, key2, value2, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#DEBUG}.
+     *
+     * @param message the message
+     */
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message, null, null, null, null, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#DEBUG} with a field.
+     *
+     * @param message the message
+     * @param key     the name of the field
+     * @param value   the value of the field
+     */
+    public void debug(String message, String key, Object value) {
+        log(LogLevel.DEBUG, message, key, value, null, null, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#DEBUG} with two fields.
+     *
+     * @param message the message
+     * @param key1    the name of the first field
+     * @param value1  the value of the first field
+     * @param key2    the name of the second field
+     * @param value2  the value of the second field
+     */
+    public void debug(String message, String key1, Object value1, String key2, Object value2) {
+        log(LogLevel.DEBUG, message, key1, value1, key2, value2, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#INFO}.
+     *
+     * @param message the message
+     */
+    public void info(String message) {
+        log(LogLevel.INFO, message, null, null, null, null, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#INFO} with a field.
+     *
+     * @param message the message
+     * @param key     the name of the field
+     * @param value   the value of the field
+     */
+    public void info(String message, String key, Object value) {
+        log(LogLevel.INFO, message, key, value, null, null, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#INFO} with two fields.
+     *
+     * @param message the message
+     * @param key1    the name of the first field
+     * @param value1  the value of the first field
+     * @param key2    the name of the second field
+     * @param value2  the value of the second field
+     */
+    public void info(String message, String key1, Object value1, String key2, Object value2) {
+        log(LogLevel.INFO, message, key1, value1, key2, value2, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#WARN}.
+     *
+     * @param message the message
+     */
+    public void warn(String message) {
+        log(LogLevel.WARN, message, null, null, null, null, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#WARN} with a field.
+     *
+     * @param message the message
+     * @param key     the name of the field
+     * @param value   the value of the field
+     */
+    public void warn(String message, String key, Object value) {
+        log(LogLevel.WARN, message, key, value, null, null, null);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#WARN} with a field and an exception.
+     *
+     * @param message the message
+     * @param key     the name of the field
+     * @param value   the value of the field
+     * @param thrown  the exception
+     */
+    public void warn(String message, String key, Object value, Throwable thrown) {
+        log(LogLevel.WARN, message, key, value, null, null, thrown);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#WARN} with an exception.
+     *
+     * @param message the message
+     * @param thrown  the exception
+     */
+    public void warn(String message, Throwable thrown) {
+        log(LogLevel.WARN, message, null, null, null, null, thrown);
+    }
+
+    /**
+     * Log an event of level {@link LogLevel#ERROR} with an exception.
+     *
+     * @param message the message
+     * @param thrown  the exception
+     */
+    public void error(String message, Throwable thrown) {
+        log(LogLevel.ERROR, message, null, null, null, null, thrown);
+    }
+
+    /**
+     * Publish an event if its level is logged and it is not skipped by the sampling.
+     *
+     * @param level   the level of the event
+     * @param message the message of the event
+     * @param key1    the name of the first field, or null
+     * @param value1  the value of the first field, which must not be modified afterward
+     * @param key2    the name of the second field, or null
+     * @param value2  the value of the second field, which must not be modified afterward
+     * @param thrown  the exception attached to the event, or null
+     */
+    private void log(LogLevel level, String message, String key1, Object value1, String key2, Object value2,
+                     Throwable thrown) {
+        if (level.ordinal() < threshold) return;
+        int every = sampleEvery;
+        if (every > 1 && level.compareTo(LogLevel.WARN) < 0 && sampled.getAndIncrement() % every != 0) return;
+        LogWriter.INSTANCE.publish(level, category, message, key1, value1, key2, value2, thrown);
+    }
+}
@@ -0,0 +1,49 @@
+package ch.epfl.chacun.server.log;
+
+/**
+ * The severity of a log event, from the most verbose to the most severe.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public enum LogLevel {
+    /**
+     * Events happening for each frame, only useful while debugging the protocol.
+     */
+    TRACE,
+    /**
+     * Events happening for each message.
+     */
+    DEBUG,
+    /**
+     * Events of the lifecycle of the server and of the connections.
+     */
+    INFO,
+    /**
+     * Failures limited to a single connection.
+     */
+    WARN,
+    /**
+     * Failures affecting the whole server.
+     */
+    ERROR,
+    /**
+     * Nothing is logged.
+     */
+    OFF;
+
+    /**
+     * Convert a string to a level, ignoring its case.
+     *
+     * @param level        the string to convert, may be null
+     * @param defaultLevel the level to return if the string is not a level
+     * @return the corresponding level, or the default level
+     */
+    public static LogLevel fromString(String level, LogLevel defaultLevel) {
+        if (level == null) return defaultLevel;
+        try {
+            return LogLevel.valueOf(level.trim().toUpperCase());
+        } catch (IllegalArgumentException _) {
+            return defaultLevel;
+        }
+    }
+}
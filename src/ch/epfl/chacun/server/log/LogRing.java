@@ -0,0 +1,165 @@
+package ch.epfl.chacun.server.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded lock-free ring of log events, written by any thread and read by a single writer thread.
+ * <p>
+ * The slots are allocated once and reused. Each slot has a sequence number telling whether it is free
+ * for the producer claiming a given position, or ready for the consumer reading it. A producer claims
+ * a position with a compare-and-set, fills the slot and publishes it by advancing its sequence.
+ * When the ring is full, the event is dropped and counted instead of blocking the producer.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class LogRing {
+
+    private final Slot[] slots;
+
+    /**
+     * The sequence number of each slot: equal to a position when the slot is free to be written at this position,
+     * and to the position plus one once the event written at this position can be read.
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    /**
+     * The next position to be claimed by a producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The next position to be read by the consumer, only accessed by the consumer.
+     */
+    private long head;
+
+    /**
+     * The number of events dropped because the ring was full, since it was last reported.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Create a new empty ring.
+     *
+     * @param capacity the number of slots of the ring, a power of two
+     * @throws IllegalArgumentException if the capacity is not a power of two
+     */
+    LogRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("The capacity must be a power of two");
+        this.slots = new Slot[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Publish an event, unless the ring is full.
+     *
+     * @param level    the level of the event
+     * @param category the category of the event
+     * @param message  the message of the event
+     * @param key1     the name of the first field, or null
+     * @param value1   the value of the first field
+     * @param key2     the name of the second field, or null
+     * @param value2   the value of the second field
+     * @param thrown   the exception attached to the event, or null
+     * @return true if the event has been published, false if it has been dropped
+     */
+    boolean publish(LogLevel level, String category, String message,
+                    String key1, Object value1, String key2, Object value2, Throwable thrown) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long available = sequences.get((int) position & mask) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (available < 0) {
+                // The consumer has not read the slot written a full turn earlier
+                dropped.increment();
+                return false;
+            }
+            // Another producer claimed the position in the meantime, try the next one
+        }
+        int index = (int) position & mask;
+        Slot slot = slots[index];
+        slot.time = System.currentTimeMillis();
+        slot.threadName = Thread.currentThread().getName();
+        slot.level = level;
+        slot.category = category;
+        slot.message = message;
+        slot.key1 = key1;
+        slot.value1 = value1;
+        slot.key2 = key2;
+        slot.value2 = value2;
+        slot.thrown = thrown;
+        sequences.set(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Returns the next event to be read, which stays in the ring until {@link #release()} is called.
+     * Must only be called by the consumer.
+     *
+     * @return the next event, or null if none has been published yet
+     */
+    Slot peek() {
+        int index = (int) head & mask;
+        return sequences.get(index) == head + 1 ? slots[index] : null;
+    }
+
+    /**
+     * Free the slot of the event returned by {@link #peek()}. Must only be called by the consumer.
+     */
+    void release() {
+        int index = (int) head & mask;
+        slots[index].clear();
+        sequences.set(index, head + slots.length);
+        head++;
+    }
+
+    /**
+     * Returns the number of events dropped since the last call, and resets it.
+     *
+     * @return the number of dropped events
+     */
+    long takeDropped() {
+        return dropped.sumThenReset();
+    }
+
+    /**
+     * A reusable slot holding an event.
+     */
+    static final class Slot {
+        long time;
+        String threadName;
+        LogLevel level;
+        String category;
+        String message;
+        String key1;
+        Object value1;
+        String key2;
+        Object value2;
+        Throwable thrown;
+
+        /**
+         * Drop the references held by the slot, so that they can be collected.
+         */
+        private void clear() {
+            threadName = null;
+            category = null;
+            message = null;
+            key1 = null;
+            value1 = null;
+            key2 = null;
+            value2 = null;
+            thrown = null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ch.epfl.chacun.server.log;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The background thread writing the log events to the standard output.
+ * <p>
+ * The threads logging an event only publish it to a lock-free ring, they never wait for the output.
+ * The writer formats the events in batches and writes each batch at once, then sleeps briefly when
+ * the ring is empty. The events still in the ring are written when the virtual machine shuts down.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class LogWriter implements Runnable {
+
+    /**
+     * The number of events the ring can hold before dropping new ones.
+     */
+    private static final int CAPACITY = 8192;
+
+    /**
+     * The maximum number of events formatted before the output is written.
+     */
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * The time the writer sleeps when the ring is empty (in nanoseconds).
+     */
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * The writer shared by every log, started on first use.
+     */
+    static final LogWriter INSTANCE = new LogWriter(System.out);
+
+    private final LogRing ring = new LogRing(CAPACITY);
+    private final PrintStream out;
+
+    /**
+     * The formatted batch, only accessed by the thread holding the lock of the writer.
+     */
+    private final StringBuilder batch = new StringBuilder(MAX_BATCH * 128);
+
+    /**
+     * Create a new writer and start its thread.
+     *
+     * @param out the stream the events are written to
+     */
+    private LogWriter(PrintStream out) {
+        this.out = out;
+        Thread.ofPlatform().name("log-writer").daemon().start(this);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-writer-shutdown"));
+    }
+
+    /**
+     * Publish an event to be written by the background thread.
+     *
+     * @see LogRing#publish(LogLevel, String, String, String, Object, String, Object, Throwable)
+     */
+    void publish(LogLevel level, String category, String message,
+                 String key1, Object value1, String key2, Object value2, Throwable thrown) {
+        ring.publish(level, category, message, key1, value1, key2, value2, thrown);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            if (drain() == 0)
+                LockSupport.parkNanos(IDLE_PARK);
+        }
+    }
+
+    /**
+     * Write every event published so far.
+     * <p>
+     * Synchronized so that the shutdown hook and the background thread never read the ring at the same time.
+     *
+     * @return the number of events written
+     */
+    private synchronized int drain() {
+        int written = 0;
+        LogRing.Slot slot;
+        while ((slot = ring.peek()) != null) {
+            format(slot);
+            ring.release();
+            if (++written % MAX_BATCH == 0)
+                flush();
+        }
+        long dropped = ring.takeDropped();
+        if (dropped > 0)
+            batch.append(Instant.now()).append(" WARN  log ").append(dropped).append(" events dropped\n");
+        flush();
+        return written;
+    }
+
+    /**
+     * Append a formatted event to the batch.
+     *
+     * @param slot the event
+     */
+    private void format(LogRing.Slot slot) {
+        batch.append(Instant.ofEpochMilli(slot.time)).append(' ');
+        String level = slot.level.name();
+        batch.append(level).repeat(' ', 6 - level.length());
+        batch.append(slot.category).append(" [").append(slot.threadName).append("] ").append(slot.message);
+        if (slot.key1 != null)
+            batch.append(' ').append(slot.key1).append('=').append(slot.value1);
+        if (slot.key2 != null)
+            batch.append(' ').append(slot.key2).append('=').append(slot.value2);
+        batch.append('\n');
+        if (slot.thrown != null) {
+            StringWriter trace = new StringWriter();
+            slot.thrown.printStackTrace(new PrintWriter(trace));
+            batch.append(trace);
+        }
+    }
+
+    /**
+     * Write the batch to the output and empty it.
+     */
+    private void flush() {
+        if (batch.isEmpty()) return;
+        out.print(batch);
+        out.flush();
+        batch.setLength(0);
+    }
+}
@@ -0,0 +1,144 @@
+package ch.epfl.chacun.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, recorded in nanoseconds with a bounded relative error, in the manner of HdrHistogram.
+ * <p>
+ * The values are sorted into log-linear buckets: each power of two is split into {@value #SUB_BUCKETS} buckets
+ * of equal width, so that the value reported for a bucket is never more than about 3% above the recorded one.
+ * The buckets are allocated once, and recording a value only increments a few atomic counters.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of bits of precision kept for each value.
+     */
+    private static final int PRECISION_BITS = 5;
+
+    /**
+     * The number of buckets each power of two is split into.
+     */
+    private static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+
+    /**
+     * The number of buckets needed to hold any positive long value.
+     */
+    private static final int BUCKETS = (Long.SIZE - PRECISION_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos the latency (in nanoseconds), negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Another thread has raised the maximum in the meantime, compare again
+        }
+    }
+
+    /**
+     * Record the time elapsed since the given start.
+     *
+     * @param startNanos the start (as given by {@link System#nanoTime()})
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Take a snapshot of the recorded latencies.
+     * <p>
+     * The snapshot is taken while values are being recorded, so its count may be slightly off its buckets.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] bucketCounts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketCounts[i] = counts.get(i);
+        }
+        return new Snapshot(bucketCounts, count.sum(), sum.sum(), max.get());
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value the value, positive
+     * @return the index of its bucket
+     */
+    private static int bucketOf(long value) {
+        // The values below two powers of the precision are recorded exactly
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - PRECISION_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the highest value sorted into a bucket.
+     *
+     * @param bucket the index of the bucket
+     * @return the highest value of the bucket
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * The latencies recorded by a histogram at a given time.
+     *
+     * @param counts the number of values recorded in each bucket
+     * @param count  the number of values recorded
+     * @param sum    the sum of the values recorded (in nanoseconds)
+     * @param max    the highest value recorded (in nanoseconds)
+     */
+    public record Snapshot(long[] counts, long count, long sum, long max) {
+
+        /**
+         * Returns the latency below which the given fraction of the values fall.
+         *
+         * @param quantile the fraction of the values, between 0 and 1
+         * @return the latency at the quantile (in nanoseconds), or 0 if nothing has been recorded
+         */
+        public long valueAtQuantile(double quantile) {
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            if (total == 0) return 0;
+            long rank = Math.max((long) Math.ceil(quantile * total), 1);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestValueOf(i), max);
+            }
+            return max;
+        }
+
+        /**
+         * Returns the mean of the values recorded.
+         *
+         * @return the mean latency (in nanoseconds), or 0 if nothing has been recorded
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+}
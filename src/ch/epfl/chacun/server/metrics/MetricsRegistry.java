@@ -0,0 +1,107 @@
+package ch.epfl.chacun.server.metrics;
+
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The counters, gauges and latency histograms of a server, identified by their series.
+ * <p>
+ * A series is the name of a metric followed by its labels, such as {@code chacun_denials_total{action="GAMEJOIN_DENY"}}.
+ * Looking a metric up creates it on first use; the hot paths are expected to look their metrics up once
+ * and keep them, so that recording a value never touches the registry.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class MetricsRegistry {
+
+    private final NavigableMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns the counter of a series, created on first use.
+     *
+     * @param name   the name of the metric
+     * @param labels the names and values of the labels of the series, alternately
+     * @return the counter
+     * @throws IllegalArgumentException if a label has no value
+     */
+    public LongAdder counter(String name, String... labels) {
+        return counters.computeIfAbsent(series(name, labels), _ -> new LongAdder());
+    }
+
+    /**
+     * Register a gauge, whose value is read each time the metrics are collected.
+     *
+     * @param name   the name of the metric
+     * @param value  the supplier of the value of the gauge, which must be cheap and thread-safe
+     * @param labels the names and values of the labels of the series, alternately
+     * @throws IllegalArgumentException if a label has no value
+     */
+    public void gauge(String name, LongSupplier value, String... labels) {
+        gauges.put(series(name, labels), value);
+    }
+
+    /**
+     * Returns the latency histogram of a series, created on first use.
+     *
+     * @param name   the name of the metric
+     * @param labels the names and values of the labels of the series, alternately
+     * @return the histogram
+     * @throws IllegalArgumentException if a label has no value
+     */
+    public LatencyHistogram histogram(String name, String... labels) {
+        return histograms.computeIfAbsent(series(name, labels), _ -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns the counters, sorted by series.
+     *
+     * @return an unmodifiable view of the counters
+     */
+    public NavigableMap<String, LongAdder> counters() {
+        return Collections.unmodifiableNavigableMap(counters);
+    }
+
+    /**
+     * Returns the gauges, sorted by series.
+     *
+     * @return an unmodifiable view of the gauges
+     */
+    public NavigableMap<String, LongSupplier> gauges() {
+        return Collections.unmodifiableNavigableMap(gauges);
+    }
+
+    /**
+     * Returns the latency histograms, sorted by series.
+     *
+     * @return an unmodifiable view of the histograms
+     */
+    public NavigableMap<String, LatencyHistogram> histograms() {
+        return Collections.unmodifiableNavigableMap(histograms);
+    }
+
+    /**
+     * Returns the identifier of a series, in the format of Prometheus.
+     *
+     * @param name   the name of the metric
+     * @param labels the names and values of the labels, alternately
+     * @return the name of the metric followed by its labels, if any
+     * @throws IllegalArgumentException if a label has no value
+     */
+    private static String series(String name, String... labels) {
+        if (labels.length == 0) return name;
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Each label must have a value");
+        StringBuilder series = new StringBuilder(name).append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) series.append(',');
+            String value = labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"");
+            series.append(labels[i]).append("=\"").append(value).append('"');
+        }
+        return series.append('}').toString();
+    }
+}
@@ -0,0 +1,124 @@
+package ch.epfl.chacun.server.metrics;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Renders the metrics of a registry in the text exposition format of Prometheus.
+ * <p>
+ * Latency histograms are rendered as summaries in seconds, with the suffix {@code _seconds} appended to their name.
+ * Gauges whose name ends with {@code _total} count events from another source, and are rendered as counters.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class PrometheusFormat {
+
+    /**
+     * The content type of the format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The quantiles rendered for each latency histogram.
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Non-instantiable class.
+     */
+    private PrometheusFormat() {
+    }
+
+    /**
+     * Render every metric of a registry.
+     *
+     * @param registry the registry to render
+     * @param out      the builder the metrics are appended to
+     */
+    public static void render(MetricsRegistry registry, StringBuilder out) {
+        Set<String> typed = new HashSet<>();
+        for (Map.Entry<String, LongAdder> counter : registry.counters().entrySet()) {
+            appendType(out, typed, counter.getKey(), "counter");
+            appendSample(out, counter.getKey(), null, counter.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : registry.gauges().entrySet()) {
+            appendType(out, typed, gauge.getKey(), nameOf(gauge.getKey()).endsWith("_total") ? "counter" : "gauge");
+            appendSample(out, gauge.getKey(), null, gauge.getValue().getAsLong());
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : registry.histograms().entrySet()) {
+            String series = withSuffix(histogram.getKey(), "_seconds");
+            appendType(out, typed, series, "summary");
+            LatencyHistogram.Snapshot snapshot = histogram.getValue().snapshot();
+            for (double quantile : QUANTILES) {
+                appendSample(out, series, STR."quantile=\"\{quantile}\"",
+                        snapshot.valueAtQuantile(quantile) / NANOS_PER_SECOND);
+            }
+            appendSample(out, withSuffix(series, "_sum"), null, snapshot.sum() / NANOS_PER_SECOND);
+            appendSample(out, withSuffix(series, "_count"), null, snapshot.count());
+        }
+    }
+
+    /**
+     * Append the type of a metric, unless it has already been appended.
+     *
+     * @param out    the builder
+     * @param typed  the names of the metrics whose type has been appended
+     * @param series a series of the metric
+     * @param type   the type of the metric
+     */
+    private static void appendType(StringBuilder out, Set<String> typed, String series, String type) {
+        String name = nameOf(series);
+        if (typed.add(name))
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Append a sample of a series.
+     *
+     * @param out         the builder
+     * @param series      the series
+     * @param extraLabels a label added to the ones of the series, or null
+     * @param value       the value of the sample
+     */
+    private static void appendSample(StringBuilder out, String series, String extraLabels, Object value) {
+        if (extraLabels == null) {
+            out.append(series);
+        } else {
+            int labels = series.indexOf('{');
+            if (labels < 0)
+                out.append(series).append('{').append(extraLabels).append('}');
+            else
+                out.append(series, 0, series.length() - 1).append(',').append(extraLabels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Returns the name of the metric of a series.
+     *
+     * @param series the series
+     * @return the name of the series, without its labels
+     */
+    private static String nameOf(String series) {
+        int labels = series.indexOf('{');
+        return labels < 0 ? series : series.substring(0, labels);
+    }
+
+    /**
+     * Append a suffix to the name of the metric of a series, keeping its labels.
+     *
+     * @param series the series
+     * @param suffix the suffix of the name
+     * @return the series with the suffixed name
+     */
+    private static String withSuffix(String series, String suffix) {
+        int labels = series.indexOf('{');
+        return labels < 0 ? series + suffix : series.substring(0, labels) + suffix + series.substring(labels);
+    }
+}
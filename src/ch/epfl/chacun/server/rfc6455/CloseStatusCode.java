@@ -54,6 +54,10 @@ public enum CloseStatusCode {
      * 1011: Internal server error.
      */
     INTERNAL_SERVER_ERROR(1011),
+    /**
+     * 1013: Try again later.
+     */
+    TRY_AGAIN_LATER(1013),
     /**
      * 1015: TLS handshake.
      */
@@ -0,0 +1,40 @@
+package ch.epfl.chacun.server.rfc6455;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event emitted when a frame received from a client has been decoded.
+ * <p>
+ * A frame of a few hundred bytes is decoded in microseconds, so there is no slow decoding worth filtering:
+ * the event is disabled by default, and every frame is recorded once it is enabled to trace a session.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+@Name("ch.epfl.chacun.FrameDecoded")
+@Label("Frame Decoded")
+@Description("A WebSocket frame received from a client has been parsed and unmasked")
+@Category({"ChaCuN", "WebSocket"})
+@Enabled(false)
+@StackTrace(false)
+final class FrameDecodedEvent extends Event {
+
+    @Label("Opcode")
+    String opCode;
+
+    @Label("Payload Length")
+    @DataAmount
+    int length;
+
+    @Label("Final")
+    boolean isFinal;
+
+    @Label("Compressed")
+    boolean compressed;
+}
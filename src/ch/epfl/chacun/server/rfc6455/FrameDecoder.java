@@ -0,0 +1,172 @@
+package ch.epfl.chacun.server.rfc6455;
+
+import ch.epfl.chacun.server.buffer.BufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A stateful decoder extracting WebSocket frames from the bytes read on a connection.
+ * <p>
+ * TCP does not preserve message boundaries: a single read may contain a part of a frame,
+ * or several frames sent back to back by the client. The decoder reads into its own buffer,
+ * emits every complete frame it contains and keeps the bytes of an incomplete frame for the next read.
+ * Only these leftover bytes are moved, never the whole buffer.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class FrameDecoder {
+
+    /**
+     * The maximum size of a frame header: the first two bytes, the 64-bit extended length and the masking key.
+     */
+    public static final int MAX_HEADER_SIZE = 2 + Long.BYTES + RFC6455.DATA_MASK_SIZE;
+
+    /**
+     * The pool providing the read buffers.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The maximum size of a frame (header included).
+     */
+    private final int maxFrameSize;
+
+    /**
+     * The buffer holding the bytes read from the connection, or null if there is none.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Whether the buffer is being decoded (read mode) or filled by a read (write mode).
+     */
+    private boolean decoding;
+
+    /**
+     * The size of the incomplete frame waiting for more bytes, or -1 if unknown.
+     */
+    private long pendingFrameSize = -1;
+
+    /**
+     * Create a new frame decoder.
+     *
+     * @param pool           the pool providing the read buffers
+     * @param maxPayloadSize the maximum size of the payload data of a frame (in bytes)
+     */
+    public FrameDecoder(BufferPool pool, int maxPayloadSize) {
+        this.pool = pool;
+        this.maxFrameSize = maxPayloadSize + MAX_HEADER_SIZE;
+    }
+
+    /**
+     * Returns the buffer the next read should be written into.
+     * <p>
+     * The buffer already contains the leftover bytes of the previous reads, and is grown
+     * if the incomplete frame it contains does not fit in it.
+     *
+     * @return the buffer to read into
+     */
+    public ByteBuffer readBuffer() {
+        if (buffer == null) {
+            buffer = pool.acquire(maxFrameSize);
+        } else if (!buffer.hasRemaining()) {
+            // The incomplete frame fills the whole buffer, move it to a larger one
+            int size = pendingFrameSize == -1 ? maxFrameSize : (int) pendingFrameSize;
+            ByteBuffer larger = pool.acquire(Math.max(size, buffer.capacity() * 2));
+            larger.put(buffer.flip());
+            pool.release(buffer);
+            buffer = larger;
+        }
+        decoding = false;
+        return buffer;
+    }
+
+    /**
+     * Returns a read-only view of the bytes that have not been decoded yet.
+     *
+     * @return the bytes that have not been decoded yet
+     */
+    public ByteBuffer remainingBytes() {
+        startDecoding();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Skip bytes that have been decoded from the view returned by {@link #remainingBytes()}.
+     *
+     * @param length the number of bytes to skip
+     */
+    public void consume(int length) {
+        startDecoding();
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Switch the buffer to read mode after a read has completed.
+     */
+    private void startDecoding() {
+        if (!decoding) {
+            buffer.flip();
+            decoding = true;
+        }
+    }
+
+    /**
+     * Extract the next complete frame from the bytes read so far.
+     * <p>
+     * The returned payload data is a view on the read buffer, it is only valid until
+     * {@link #compact()} or {@link #release()} is called.
+     *
+     * @return the next frame, or null if no complete frame is available yet
+     * @throws FrameTooLargeException   if the frame is larger than the maximum frame size
+     * @throws IllegalArgumentException if the frame is invalid
+     */
+    public PayloadData nextFrame() {
+        startDecoding();
+        pendingFrameSize = RFC6455.readFrameSize(buffer);
+        if (pendingFrameSize > maxFrameSize)
+            throw new FrameTooLargeException();
+        return RFC6455.parseFrame(buffer);
+    }
+
+    /**
+     * Keep the bytes of the incomplete frame for the next read.
+     * <p>
+     * The buffer is given back to the pool if every byte has been decoded.
+     */
+    public void compact() {
+        startDecoding();
+        if (buffer.hasRemaining()) {
+            // Only move the leftover bytes to the start of the buffer
+            buffer.compact();
+            decoding = false;
+        } else {
+            release();
+        }
+    }
+
+    /**
+     * Discard every byte read so far and give the buffer back to the pool.
+     */
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        decoding = false;
+        pendingFrameSize = -1;
+    }
+
+    /**
+     * Thrown when a frame is larger than the maximum frame size.
+     * <p>
+     * Unlike the other invalid frames, the connection is failed with a close frame telling the client why.
+     */
+    public static class FrameTooLargeException extends IllegalArgumentException {
+        /**
+         * Construct a FrameTooLargeException.
+         */
+        public FrameTooLargeException() {
+            super("Frame too large");
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ch.epfl.chacun.server.rfc6455;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An incremental parser of the HTTP request opening a WebSocket connection.
+ * <p>
+ * The request may be split across several reads: the parser consumes the bytes it is given and
+ * keeps its state between calls, so bytes are never scanned twice. Any byte following the end
+ * of the request is left in the buffer, to be decoded as frames once the connection is upgraded.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class HandshakeParser {
+
+    /**
+     * The maximum size of a request, headers included.
+     */
+    public static final int MAX_REQUEST_SIZE = 16 * 1024;
+
+    /**
+     * The maximum number of headers of a request.
+     */
+    private static final int MAX_HEADERS = 100;
+
+    /**
+     * The bytes of the line being parsed.
+     */
+    private byte[] line = new byte[256];
+
+    /**
+     * The number of bytes of the line being parsed.
+     */
+    private int lineLength;
+
+    /**
+     * The number of bytes of the request parsed so far.
+     */
+    private int requestSize;
+
+    /**
+     * The method, target and version of the request, or null if the request line has not been parsed yet.
+     */
+    private String[] requestLine;
+
+    /**
+     * The headers parsed so far, by lower-case name.
+     */
+    private final Map<String, String> headers = new HashMap<>();
+
+    /**
+     * Parse the given bytes.
+     *
+     * @param bytes the bytes read from the connection, consumed up to the end of the request
+     * @return the request once it is complete, or null if more bytes are needed
+     * @throws IllegalArgumentException if the request is malformed or too large
+     */
+    public HandshakeRequest parse(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (++requestSize > MAX_REQUEST_SIZE)
+                throw new IllegalArgumentException("Request too large");
+            if (b != '\n') {
+                appendToLine(b);
+                continue;
+            }
+            // A line ends with CRLF, but a single LF is tolerated (RFC 9112 section 2.2)
+            int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+            lineLength = 0;
+            if (requestLine == null) {
+                // Empty lines before the request line are ignored
+                if (length > 0)
+                    requestLine = parseRequestLine(length);
+            } else if (length == 0) {
+                return new HandshakeRequest(requestLine[0], requestLine[1], requestLine[2], headers);
+            } else {
+                parseHeader(length);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Append a byte to the line being parsed, growing the line if needed.
+     *
+     * @param b the byte to append
+     */
+    private void appendToLine(byte b) {
+        if (lineLength == line.length) {
+            byte[] larger = new byte[line.length * 2];
+            System.arraycopy(line, 0, larger, 0, lineLength);
+            line = larger;
+        }
+        line[lineLength++] = b;
+    }
+
+    /**
+     * Parse the request line, made of the method, the target and the version separated by single spaces.
+     *
+     * @param length the length of the line
+     * @return the method, target and version of the request
+     * @throws IllegalArgumentException if the request line is malformed
+     */
+    private String[] parseRequestLine(int length) {
+        int firstSpace = indexOf((byte) ' ', 0, length);
+        int secondSpace = indexOf((byte) ' ', firstSpace + 1, length);
+        if (firstSpace <= 0 || secondSpace <= firstSpace + 1 || secondSpace == length - 1)
+            throw new IllegalArgumentException("Malformed request line");
+        return new String[]{
+                ascii(0, firstSpace),
+                ascii(firstSpace + 1, secondSpace),
+                ascii(secondSpace + 1, length)
+        };
+    }
+
+    /**
+     * Parse a header line, made of a name and a value separated by a colon.
+     *
+     * @param length the length of the line
+     * @throws IllegalArgumentException if the header is malformed or if there are too many headers
+     */
+    private void parseHeader(int length) {
+        int colon = indexOf((byte) ':', 0, length);
+        // No whitespace is allowed between the name and the colon (RFC 9112 section 5.1)
+        if (colon <= 0 || line[colon - 1] == ' ' || line[colon - 1] == '\t')
+            throw new IllegalArgumentException("Malformed header");
+        String name = ascii(0, colon).toLowerCase(Locale.ROOT);
+        String value = ascii(colon + 1, length).trim();
+        headers.merge(name, value, (previous, next) -> STR."\{previous}, \{next}");
+        if (headers.size() > MAX_HEADERS)
+            throw new IllegalArgumentException("Too many headers");
+    }
+
+    /**
+     * Returns the index of the first occurrence of a byte in a range of the line.
+     *
+     * @param b     the byte to look for
+     * @param from  the start of the range (inclusive)
+     * @param until the end of the range (exclusive)
+     * @return the index of the byte, or -1 if it is not in the range
+     */
+    private int indexOf(byte b, int from, int until) {
+        for (int i = from; i < until; i++) {
+            if (line[i] == b) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Decode a range of the line, which should only contain ASCII characters.
+     *
+     * @param from  the start of the range (inclusive)
+     * @param until the end of the range (exclusive)
+     * @return the decoded range
+     */
+    private String ascii(int from, int until) {
+        return new String(line, from, until - from, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,50 @@
+package ch.epfl.chacun.server.rfc6455;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An HTTP request received on a connection before it is upgraded to the WebSocket protocol.
+ *
+ * @param method  The method of the request.
+ * @param target  The target of the request.
+ * @param version The HTTP version of the request.
+ * @param headers The headers of the request, by lower-case name. Repeated headers are joined by commas.
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public record HandshakeRequest(String method, String target, String version, Map<String, String> headers) {
+
+    /**
+     * Defensively copies the headers.
+     */
+    public HandshakeRequest {
+        headers = Map.copyOf(headers);
+    }
+
+    /**
+     * Returns the value of a header of the request.
+     *
+     * @param name The case-insensitive name of the header.
+     * @return The value of the header, or null if the header is not present.
+     */
+    public String header(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Checks if a header of the request contains the given token, in a comma-separated list of values.
+     *
+     * @param name  The case-insensitive name of the header.
+     * @param token The case-insensitive token to look for.
+     * @return Whether the header is present and contains the token.
+     */
+    public boolean headerContains(String name, String token) {
+        String value = header(name);
+        if (value == null) return false;
+        for (String element : value.split(",")) {
+            if (element.trim().equalsIgnoreCase(token))
+                return true;
+        }
+        return false;
+    }
+}
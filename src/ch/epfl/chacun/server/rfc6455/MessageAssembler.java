@@ -0,0 +1,145 @@
+package ch.epfl.chacun.server.rfc6455;
+
+import ch.epfl.chacun.server.buffer.BufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembles a fragmented WebSocket message from its data frames.
+ * <p>
+ * A fragmented message starts with a TEXT or BINARY frame with the FIN bit unset,
+ * followed by CONTINUATION frames, the last one having the FIN bit set.
+ * The fragments are accumulated into a growable buffer, whose size is bounded by the maximum message size.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class MessageAssembler {
+
+    /**
+     * The initial capacity of the reassembly buffer (in bytes).
+     */
+    private static final int INITIAL_CAPACITY = 512;
+
+    /**
+     * The pool providing the reassembly buffers.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The maximum size of a reassembled message (in bytes).
+     */
+    private final int maxMessageSize;
+
+    /**
+     * The buffer holding the fragments received so far, or null if no message is being reassembled.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The opcode of the message being reassembled, or null if no message is being reassembled.
+     */
+    private OpCode opCode;
+
+    /**
+     * Whether the message being reassembled has been compressed by the permessage-deflate extension.
+     */
+    private boolean compressed;
+
+    /**
+     * Create a new message assembler.
+     *
+     * @param pool           the pool providing the reassembly buffers
+     * @param maxMessageSize the maximum size of a reassembled message (in bytes)
+     */
+    public MessageAssembler(BufferPool pool, int maxMessageSize) {
+        this.pool = pool;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Whether a fragmented message is currently being reassembled.
+     *
+     * @return true if a message is being reassembled, false otherwise
+     */
+    public boolean isAssembling() {
+        return opCode != null;
+    }
+
+    /**
+     * Returns the opcode of the first frame of the message being reassembled.
+     *
+     * @return the opcode of the message being reassembled, or null if there is none
+     */
+    public OpCode opCode() {
+        return opCode;
+    }
+
+    /**
+     * Whether the message being reassembled has been compressed by the permessage-deflate extension.
+     *
+     * @return true if the message is compressed, false otherwise
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Start to reassemble a new fragmented message.
+     *
+     * @param opCode     the opcode of the first frame of the message
+     * @param compressed whether the RSV1 bit of the first frame is set
+     * @throws IllegalStateException if a message is already being reassembled
+     */
+    public void start(OpCode opCode, boolean compressed) {
+        if (isAssembling())
+            throw new IllegalStateException("A fragmented message is already being reassembled");
+        this.opCode = opCode;
+        this.compressed = compressed;
+        this.buffer = pool.acquire(Math.min(INITIAL_CAPACITY, maxMessageSize));
+    }
+
+    /**
+     * Append the data of a fragment to the message being reassembled.
+     *
+     * @param data the unmasked data of the fragment, which is not consumed
+     * @return true if the data was appended, false if the message would exceed the maximum message size
+     */
+    public boolean append(ByteBuffer data) {
+        int size = buffer.position() + data.remaining();
+        if (size > maxMessageSize)
+            return false;
+        if (size > buffer.limit()) {
+            // Grow the buffer, doubling its size to amortize the copies
+            ByteBuffer larger = pool.acquire(Math.min(Math.max(size, buffer.limit() * 2), maxMessageSize));
+            larger.put(buffer.flip());
+            pool.release(buffer);
+            buffer = larger;
+        }
+        buffer.put(buffer.position(), data, data.position(), data.remaining());
+        buffer.position(size);
+        return true;
+    }
+
+    /**
+     * Complete the reassembly of the current message.
+     * <p>
+     * The returned view is only valid until {@link #release()} is called.
+     *
+     * @return a read-only view on the data of the whole message
+     */
+    public ByteBuffer finish() {
+        return buffer.duplicate().flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Discard the message being reassembled, if any.
+     */
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        opCode = null;
+        compressed = false;
+    }
+}
@@ -66,6 +66,18 @@ public enum OpCode {
         return ALL.stream().filter(op -> op.code == value).findFirst().orElseThrow();
     }
 
+    /**
+     * Whether the OpCode denotes a control frame.
+     * <p>
+     * Control frames are used to communicate state about the WebSocket,
+     * they can be injected in the middle of a fragmented message but cannot be fragmented themselves.
+     *
+     * @return true if the OpCode denotes a control frame, false otherwise.
+     */
+    public boolean isControl() {
+        return code >= CLOSE.code;
+    }
+
     /**
      * Get the value of the OpCode.
      *
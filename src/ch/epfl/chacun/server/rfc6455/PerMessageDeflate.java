@@ -0,0 +1,367 @@
+package ch.epfl.chacun.server.rfc6455;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate extension (RFC 7692) negotiated on a WebSocket connection.
+ * <p>
+ * Compressed messages are sent in frames with the RSV1 bit set. A context is kept by the connection
+ * only if the context takeover is allowed, otherwise the compressors are borrowed from a shared pool
+ * for each message and reset afterward.
+ * <p>
+ * The Java implementation of zlib always uses the largest window, so offers restricting the window
+ * of the server ({@code server_max_window_bits} below 15) are declined.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class PerMessageDeflate {
+
+    /**
+     * The name of the extension.
+     */
+    public static final String EXTENSION_NAME = "permessage-deflate";
+
+    /**
+     * The empty stored block ending every compressed message, removed before sending.
+     */
+    private static final byte[] TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+
+    /**
+     * The idle deflaters shared by the connections without server context takeover, per compression level.
+     */
+    private static final Queue<Deflater>[] IDLE_DEFLATERS = newPools(Deflater.BEST_COMPRESSION + 2);
+
+    /**
+     * The idle inflaters shared by the connections without client context takeover.
+     */
+    private static final Queue<Inflater> IDLE_INFLATERS = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The settings of the server.
+     */
+    private final PerMessageDeflateConfig config;
+
+    /**
+     * Whether the server resets its compression context after each message.
+     */
+    private final boolean serverNoContextTakeover;
+
+    /**
+     * Whether the client resets its compression context after each message.
+     */
+    private final boolean clientNoContextTakeover;
+
+    /**
+     * The negotiated response header value.
+     */
+    private final String responseHeader;
+
+    /**
+     * The deflater kept by the connection, if the server context takeover is allowed.
+     */
+    private Deflater deflater;
+
+    /**
+     * The inflater kept by the connection, if the client context takeover is allowed.
+     */
+    private Inflater inflater;
+
+    /**
+     * Whether the compressors of the connection have been released.
+     */
+    private boolean released;
+
+    /**
+     * Create the extension negotiated for a connection.
+     *
+     * @param config                  the settings of the server
+     * @param serverNoContextTakeover whether the server resets its compression context after each message
+     * @param clientNoContextTakeover whether the client resets its compression context after each message
+     * @param responseHeader          the negotiated response header value
+     */
+    private PerMessageDeflate(PerMessageDeflateConfig config, boolean serverNoContextTakeover,
+                              boolean clientNoContextTakeover, String responseHeader) {
+        this.config = config;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        this.responseHeader = responseHeader;
+    }
+
+    /**
+     * Create an array of empty pools.
+     *
+     * @param size the number of pools
+     * @param <E>  the type of the pooled elements
+     * @return the array of pools
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> Queue<E>[] newPools(int size) {
+        Queue<E>[] pools = (Queue<E>[]) new Queue<?>[size];
+        for (int i = 0; i < size; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+        }
+        return pools;
+    }
+
+    /**
+     * Negotiate the extension from the {@code Sec-WebSocket-Extensions} header of a handshake request.
+     * <p>
+     * The first acceptable offer of the client is selected.
+     *
+     * @param extensions the value of the header, or null if the header is absent
+     * @param config     the settings of the server
+     * @return the negotiated extension, or null if no offer could be accepted
+     */
+    public static PerMessageDeflate negotiate(String extensions, PerMessageDeflateConfig config) {
+        if (extensions == null || !config.enabled())
+            return null;
+        for (String offer : extensions.split(",")) {
+            PerMessageDeflate extension = accept(offer, config);
+            if (extension != null)
+                return extension;
+        }
+        return null;
+    }
+
+    /**
+     * Try to accept a single extension offer.
+     *
+     * @param offer  the offer of the client
+     * @param config the settings of the server
+     * @return the negotiated extension, or null if the offer cannot be accepted
+     */
+    private static PerMessageDeflate accept(String offer, PerMessageDeflateConfig config) {
+        String[] parts = offer.split(";");
+        if (!parts[0].trim().equalsIgnoreCase(EXTENSION_NAME))
+            return null;
+
+        boolean serverNoContextTakeover = config.serverNoContextTakeover();
+        boolean clientNoContextTakeover = config.clientNoContextTakeover();
+        int clientMaxWindowBits = -1;
+        for (int i = 1; i < parts.length; i++) {
+            String[] param = parts[i].split("=", 2);
+            String name = param[0].trim().toLowerCase(Locale.ROOT);
+            String value = param.length > 1 ? param[1].trim().replace("\"", "") : null;
+            switch (name) {
+                case "server_no_context_takeover" -> serverNoContextTakeover = true;
+                case "client_no_context_takeover" -> clientNoContextTakeover = true;
+                case "server_max_window_bits" -> {
+                    // The window of the server cannot be restricted
+                    if (parseWindowBits(value) != PerMessageDeflateConfig.MAX_WINDOW_BITS)
+                        return null;
+                }
+                case "client_max_window_bits" -> {
+                    // The client supports the parameter, and may already restrict its window
+                    clientMaxWindowBits = value == null
+                            ? config.clientMaxWindowBits()
+                            : Math.min(parseWindowBits(value), config.clientMaxWindowBits());
+                    if (clientMaxWindowBits == -1)
+                        return null;
+                }
+                default -> {
+                    return null;
+                }
+            }
+        }
+
+        StringJoiner response = new StringJoiner("; ");
+        response.add(EXTENSION_NAME);
+        if (serverNoContextTakeover)
+            response.add("server_no_context_takeover");
+        if (clientNoContextTakeover)
+            response.add("client_no_context_takeover");
+        if (clientMaxWindowBits != -1 && clientMaxWindowBits < PerMessageDeflateConfig.MAX_WINDOW_BITS)
+            response.add(STR."client_max_window_bits=\{clientMaxWindowBits}");
+        return new PerMessageDeflate(config, serverNoContextTakeover, clientNoContextTakeover, response.toString());
+    }
+
+    /**
+     * Parse the value of a window size parameter.
+     *
+     * @param value the value of the parameter
+     * @return the window size, or -1 if the value is invalid
+     */
+    private static int parseWindowBits(String value) {
+        try {
+            int bits = Integer.parseInt(value);
+            return bits >= PerMessageDeflateConfig.MIN_WINDOW_BITS && bits <= PerMessageDeflateConfig.MAX_WINDOW_BITS
+                    ? bits : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the value of the {@code Sec-WebSocket-Extensions} header of the handshake response.
+     *
+     * @return the negotiated response header value
+     */
+    public String responseHeader() {
+        return responseHeader;
+    }
+
+    /**
+     * Whether a message of the given size should be compressed.
+     * <p>
+     * Tiny messages are sent uncompressed, as the deflate overhead would outweigh the gain.
+     *
+     * @param length the size of the message (in bytes)
+     * @return true if the message should be compressed, false otherwise
+     */
+    public boolean shouldCompress(int length) {
+        return length >= config.threshold();
+    }
+
+    /**
+     * Whether the compressors of the connection have been released.
+     *
+     * @return true if the extension can no longer be used, false otherwise
+     */
+    public synchronized boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Compress a message.
+     * <p>
+     * With context takeover, messages must be sent in the order they have been compressed.
+     *
+     * @param data the data of the message
+     * @return the compressed data, without the trailing empty block,
+     * or null if the compressors have been released because the connection is closed
+     */
+    public synchronized byte[] compress(byte[] data) {
+        Deflater deflater = acquireDeflater();
+        if (deflater == null) return null;
+        deflater.setInput(data);
+        byte[] output = new byte[data.length + TAIL.length * 4];
+        int length = 0;
+        while (true) {
+            length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+            // The flush is complete once the output is not filled anymore
+            if (length < output.length) break;
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+        releaseDeflater(deflater);
+        // Remove the empty stored block added by the flush (RFC 7692 section 7.2.1)
+        if (length >= TAIL.length && Arrays.equals(output, length - TAIL.length, length, TAIL, 0, TAIL.length))
+            length -= TAIL.length;
+        return Arrays.copyOf(output, length);
+    }
+
+    /**
+     * Decompress a message.
+     *
+     * @param data    the compressed data of the message, which is not consumed
+     * @param maxSize the maximum size of the decompressed message (in bytes)
+     * @return the decompressed data, or null if it is larger than the maximum size
+     * or if the compressors have been released because the connection is closed
+     * @throws DataFormatException if the compressed data is invalid
+     */
+    public synchronized byte[] decompress(ByteBuffer data, int maxSize) throws DataFormatException {
+        Inflater inflater = acquireInflater();
+        if (inflater == null) return null;
+        try {
+            byte[] output = new byte[Math.min(maxSize + 1, Math.max(data.remaining() * 4, 64))];
+            int length = 0;
+            // Append the empty stored block removed by the client (RFC 7692 section 7.2.2)
+            for (ByteBuffer input : new ByteBuffer[]{data.duplicate(), ByteBuffer.wrap(TAIL)}) {
+                inflater.setInput(input);
+                while (true) {
+                    length += inflater.inflate(output, length, output.length - length);
+                    // All the available data has been inflated once the output is not filled anymore
+                    if (length < output.length) break;
+                    // Stop as soon as the message is known to be too large
+                    if (length > maxSize) return null;
+                    output = Arrays.copyOf(output, Math.min(output.length * 2, maxSize + 1));
+                }
+            }
+            return Arrays.copyOf(output, length);
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    /**
+     * Give back the compressors of the connection.
+     */
+    public synchronized void release() {
+        released = true;
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    /**
+     * Returns the deflater to use for the next message.
+     *
+     * @return the deflater of the connection, a pooled deflater if there is no context takeover,
+     * or null if the compressors have been released
+     */
+    private Deflater acquireDeflater() {
+        if (released)
+            return null;
+        if (!serverNoContextTakeover) {
+            if (deflater == null)
+                deflater = new Deflater(config.compressionLevel(), true);
+            return deflater;
+        }
+        Deflater pooled = IDLE_DEFLATERS[config.compressionLevel() + 1].poll();
+        return pooled != null ? pooled : new Deflater(config.compressionLevel(), true);
+    }
+
+    /**
+     * Give back a deflater once a message has been compressed.
+     *
+     * @param used the deflater used to compress the message
+     */
+    private void releaseDeflater(Deflater used) {
+        if (used != deflater) {
+            used.reset();
+            IDLE_DEFLATERS[config.compressionLevel() + 1].offer(used);
+        }
+    }
+
+    /**
+     * Returns the inflater to use for the next message.
+     *
+     * @return the inflater of the connection, a pooled inflater if there is no context takeover,
+     * or null if the compressors have been released
+     */
+    private Inflater acquireInflater() {
+        if (released)
+            return null;
+        if (!clientNoContextTakeover) {
+            if (inflater == null)
+                inflater = new Inflater(true);
+            return inflater;
+        }
+        Inflater pooled = IDLE_INFLATERS.poll();
+        return pooled != null ? pooled : new Inflater(true);
+    }
+
+    /**
+     * Give back an inflater once a message has been decompressed.
+     *
+     * @param used the inflater used to decompress the message
+     */
+    private void releaseInflater(Inflater used) {
+        if (used != inflater) {
+            used.reset();
+            IDLE_INFLATERS.offer(used);
+        }
+    }
+}
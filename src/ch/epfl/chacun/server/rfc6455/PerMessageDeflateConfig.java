@@ -0,0 +1,59 @@
+package ch.epfl.chacun.server.rfc6455;
+
+import java.util.zip.Deflater;
+
+/**
+ * The settings of the permessage-deflate extension (RFC 7692) offered by the server.
+ *
+ * @param enabled                 Whether the extension can be negotiated.
+ * @param serverNoContextTakeover Whether the server resets its compression context after each message.
+ * @param clientNoContextTakeover Whether the client is asked to reset its compression context after each message.
+ * @param clientMaxWindowBits     The maximum LZ77 window size (8 to 15) the client is asked to use.
+ * @param compressionLevel        The compression level of the server (0 to 9).
+ * @param threshold               The minimum size of a message to be compressed (in bytes).
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public record PerMessageDeflateConfig(
+        boolean enabled,
+        boolean serverNoContextTakeover,
+        boolean clientNoContextTakeover,
+        int clientMaxWindowBits,
+        int compressionLevel,
+        int threshold
+) {
+
+    /**
+     * The largest LZ77 window size, in bits.
+     */
+    public static final int MAX_WINDOW_BITS = 15;
+
+    /**
+     * The smallest LZ77 window size, in bits.
+     */
+    public static final int MIN_WINDOW_BITS = 8;
+
+    /**
+     * The extension is never negotiated.
+     */
+    public static final PerMessageDeflateConfig DISABLED =
+            new PerMessageDeflateConfig(false, false, false, MAX_WINDOW_BITS, Deflater.DEFAULT_COMPRESSION, 0);
+
+    /**
+     * The extension is negotiated without context takeover, so that the compressors can be pooled
+     * instead of being kept by each connection, and only messages of at least 256 bytes are compressed.
+     */
+    public static final PerMessageDeflateConfig DEFAULT =
+            new PerMessageDeflateConfig(true, true, true, MAX_WINDOW_BITS, Deflater.DEFAULT_COMPRESSION, 256);
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException if the window size or the compression level is invalid
+     */
+    public PerMessageDeflateConfig {
+        if (clientMaxWindowBits < MIN_WINDOW_BITS || clientMaxWindowBits > MAX_WINDOW_BITS)
+            throw new IllegalArgumentException("Invalid window size");
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level");
+    }
+}
@@ -1,12 +1,15 @@
 package ch.epfl.chacun.server.rfc6455;
 
+import ch.epfl.chacun.server.buffer.BufferPool;
+import ch.epfl.chacun.server.buffer.PooledBuffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
-import java.util.StringJoiner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Implementation of the WebSocket protocol as defined in RFC 6455.
@@ -31,6 +34,12 @@ public class RFC6455 {
     public static final int FIRST_RSV_POS = 6;
     public static final int FIN_BIT_POS = 7;
     public static final int FIN_MASK = 1 << FIN_BIT_POS;
+    public static final int RSV1_MASK = 1 << FIRST_RSV_POS;
+
+    /**
+     * The maximum length of the payload data of a control frame.
+     */
+    public static final int MAX_CONTROL_PAYLOAD_LENGTH = 125;
 
     /**
      * PING control frame.
@@ -47,6 +56,61 @@ public class RFC6455 {
      */
     private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 
+    /**
+     * The GUID encoded in ASCII.
+     */
+    private static final byte[] GUID_BYTES = GUID.getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The length of the base64-encoded SHA-1 hash sent in the "Sec-WebSocket-Accept" header.
+     */
+    private static final int ACCEPT_KEY_LENGTH = 28;
+
+    /**
+     * The template of the handshake upgrade response, with a placeholder for the accept key.
+     */
+    private static final byte[] UPGRADE_RESPONSE = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Sec-WebSocket-Accept: " + "=".repeat(ACCEPT_KEY_LENGTH) + "\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The offset of the accept key in the template of the upgrade response.
+     */
+    private static final int ACCEPT_KEY_OFFSET = UPGRADE_RESPONSE.length - ACCEPT_KEY_LENGTH - 4;
+
+    /**
+     * The start of the "Sec-WebSocket-Extensions" header, inserted after the accept key.
+     */
+    private static final byte[] EXTENSIONS_HEADER = "\r\nSec-WebSocket-Extensions: "
+            .getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The start of the "Sec-WebSocket-Protocol" header, inserted after the accept key.
+     */
+    private static final byte[] PROTOCOL_HEADER = "\r\nSec-WebSocket-Protocol: "
+            .getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The SHA-1 digest of each thread, reused by every handshake.
+     */
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every implementation of the Java platform supports SHA-1
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * The response rejecting an HTTP request which is not a valid WebSocket upgrade request.
+     */
+    public static final ByteBuffer BAD_REQUEST = ByteBuffer.wrap(
+            "HTTP/1.1 400 Bad Request\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+
     /**
      * Non-instantiable class.
      */
@@ -67,6 +131,21 @@ public class RFC6455 {
         return buffer.asReadOnlyBuffer();
     }
 
+    /**
+     * Creates the payload data of a close control frame.
+     *
+     * @param code   The close status code.
+     * @param reason The close reason.
+     * @return The payload data of the close control frame.
+     */
+    private static byte[] closePayload(CloseStatusCode code, String reason) {
+        byte[] reasonBytes = reason.getBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(2 + reasonBytes.length);
+        buffer.putShort((short) code.asNumber());
+        buffer.put(reasonBytes);
+        return buffer.array();
+    }
+
     /**
      * Encodes a WebSocket frame close control frame with the provided close status code and reason.
      *
@@ -75,11 +154,19 @@ public class RFC6455 {
      * @return The ByteBuffer containing the WebSocket frame.
      */
     public static ByteBuffer encodeCloseFrame(CloseStatusCode code, String reason) {
-        ByteBuffer buffer = ByteBuffer.allocate(2 + reason.length());
-        buffer.putShort((short) code.asNumber());
-        byte[] reasonBytes = reason.getBytes();
-        buffer.put(reasonBytes);
-        return encodeFrame(OpCode.CLOSE, buffer.array());
+        return encodeFrame(OpCode.CLOSE, closePayload(code, reason));
+    }
+
+    /**
+     * Encodes a WebSocket frame close control frame into a buffer acquired from the provided pool.
+     *
+     * @param code   The close status code.
+     * @param reason The close reason.
+     * @param pool   The pool to acquire the buffer from.
+     * @return The pooled buffer containing the WebSocket frame.
+     */
+    public static PooledBuffer encodeCloseFrame(CloseStatusCode code, String reason, BufferPool pool) {
+        return encodeFrame(OpCode.CLOSE, closePayload(code, reason), pool);
     }
 
     /**
@@ -92,49 +179,123 @@ public class RFC6455 {
         return encodeFrame(OpCode.TEXT, message.getBytes());
     }
 
+    /**
+     * Encodes a WebSocket frame with the provided text message into a buffer acquired from the provided pool.
+     *
+     * @param message The text message to put in the WebSocket frame.
+     * @param pool    The pool to acquire the buffer from.
+     * @return The pooled buffer containing the WebSocket frame.
+     */
+    public static PooledBuffer encodeTextFrame(String message, BufferPool pool) {
+        return encodeFrame(OpCode.TEXT, message.getBytes(), pool);
+    }
+
     /**
      * Encodes a WebSocket frame with the provided opcode and data.
      *
      * @param opCode The opcode of the WebSocket frame.
      * @param data   The data to put in the WebSocket frame.
-     * @return The ByteBuffer containing the WebSocket frame.
+     * @return The read-only ByteBuffer containing the WebSocket frame.
      */
     public static ByteBuffer encodeFrame(OpCode opCode, byte[] data) {
-        ByteBuffer buffer = ByteBuffer.allocate(4096);
-        // Set the FIN bit to 1 and the opcode
-        byte firstByte = (byte) (1 << FIN_BIT_POS | opCode.asNumber());
+        byte[] length = encodeLength(Integer.toUnsignedLong(data.length));
+        // Allocate the exact size of the frame, so it can be shared by several writes
+        ByteBuffer buffer = ByteBuffer.allocate(1 + length.length + data.length);
+        return putFrame(buffer, opCode, false, length, data).asReadOnlyBuffer();
+    }
+
+    /**
+     * Encodes a WebSocket frame with the provided opcode and data into a buffer acquired from the provided pool.
+     * <p>
+     * The buffer goes back to the pool once the returned reference and all the references
+     * retained by pending writes have been released.
+     *
+     * @param opCode The opcode of the WebSocket frame.
+     * @param data   The data to put in the WebSocket frame.
+     * @param pool   The pool to acquire the buffer from.
+     * @return The pooled buffer containing the WebSocket frame.
+     */
+    public static PooledBuffer encodeFrame(OpCode opCode, byte[] data, BufferPool pool) {
+        return encodeFrame(opCode, data, false, pool);
+    }
+
+    /**
+     * Encodes a WebSocket frame with the provided opcode and data into a buffer acquired from the provided pool,
+     * setting the RSV1 bit if the data has been compressed by the permessage-deflate extension.
+     *
+     * @param opCode     The opcode of the WebSocket frame.
+     * @param data       The data to put in the WebSocket frame.
+     * @param compressed Whether the data has been compressed.
+     * @param pool       The pool to acquire the buffer from.
+     * @return The pooled buffer containing the WebSocket frame.
+     */
+    public static PooledBuffer encodeFrame(OpCode opCode, byte[] data, boolean compressed, BufferPool pool) {
+        byte[] length = encodeLength(Integer.toUnsignedLong(data.length));
+        ByteBuffer buffer = pool.acquire(1 + length.length + data.length);
+        return new PooledBuffer(pool, putFrame(buffer, opCode, compressed, length, data));
+    }
+
+    /**
+     * Writes a WebSocket frame into the provided buffer and flips it.
+     *
+     * @param buffer     The buffer to write the frame into.
+     * @param opCode     The opcode of the WebSocket frame.
+     * @param compressed Whether the RSV1 bit should be set.
+     * @param length     The encoded length of the payload data.
+     * @param data       The payload data.
+     * @return The provided buffer, ready to be read.
+     */
+    private static ByteBuffer putFrame(ByteBuffer buffer, OpCode opCode, boolean compressed, byte[] length,
+                                       byte[] data) {
+        // Set the FIN bit to 1, the RSV1 bit if compressed and the opcode
+        byte firstByte = (byte) (1 << FIN_BIT_POS | (compressed ? RSV1_MASK : 0) | opCode.asNumber());
         buffer.put(firstByte);
         // Set the MASK bit to 0 and the payload length
-        long unsignedLength = Integer.toUnsignedLong(data.length);
-        buffer.put(encodeLength(unsignedLength));
+        buffer.put(length);
         // Add the payload data
         buffer.put(data);
         buffer.flip();
-        return buffer.asReadOnlyBuffer();
+        return buffer;
     }
 
     /**
      * Decodes a WebSocket frame into a byte array.
+     * <p>
+     * The payload data has already been unmasked when the frame was parsed.
      *
      * @param payloadData The payload data of the WebSocket frame.
      * @return The decoded byte array.
      */
     public static byte[] decodeFrame(PayloadData payloadData) {
-        ByteBuffer data = payloadData.data();
-        if (payloadData.isMasked()) {
-            byte[] dataBytes = new byte[payloadData.length()];
-            // Apply the mask to retrieve the data
-            byte[] mask = payloadData.mask();
-            for (int i = 0; i < dataBytes.length; ++i) {
-                dataBytes[i] = (byte) (data.get() ^ mask[i % DATA_MASK_SIZE]);
-            }
-            // Reset the buffer position to the first data byte
-            // Allow the data to be read again
-            data.position(0);
-            // Convert the data to a string
-            return dataBytes;
+        byte[] dataBytes = new byte[payloadData.length()];
+        payloadData.data().get(0, dataBytes);
+        return dataBytes;
+    }
+
+    /**
+     * Unmasks the payload data of a WebSocket frame in place.
+     * <p>
+     * The data is XORed 8 bytes at a time with the 4 bytes mask repeated twice, in the native byte order,
+     * and only the last bytes which do not fill a whole word are unmasked one by one.
+     *
+     * @param data The masked payload data, from its position to its limit.
+     * @param mask The mask used to mask the payload data.
+     */
+    public static void unmask(ByteBuffer data, byte[] mask) {
+        ByteBuffer words = data.duplicate().order(ByteOrder.nativeOrder());
+        int start = words.position();
+        int length = words.remaining();
+        // Repeat the mask to fill a whole word, read in the same byte order as the data
+        long maskWord = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.nativeOrder())
+                .put(mask).put(mask).getLong(0);
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            words.putLong(start + i, words.getLong(start + i) ^ maskWord);
+        }
+        // A word contains the mask twice, so the mask index restarts at 0 for the remaining bytes
+        for (; i < length; ++i) {
+            words.put(start + i, (byte) (words.get(start + i) ^ mask[i % DATA_MASK_SIZE]));
         }
-        return data.array();
     }
 
     /**
@@ -144,16 +305,43 @@ public class RFC6455 {
      * @return The decoded string.
      */
     public static String decodeTextFrame(PayloadData payloadData) {
-        return new String(decodeFrame(payloadData));
+        return new String(decodeFrame(payloadData), StandardCharsets.UTF_8);
     }
 
     /**
-     * Extracts the data of a WebSocket frame.
+     * Parses the WebSocket frame starting at the position of the provided buffer.
+     * <p>
+     * If the buffer contains the whole frame, its position is moved right after the frame,
+     * so that the following frames can be parsed from the same buffer without any copy.
+     * The returned payload data is a view on the buffer content, which is unmasked in place.
      *
-     * @param payload The payload data of the WebSocket frame.
-     * @return The parsed payload data.
+     * @param buffer The writable buffer containing the WebSocket frame, ready to be read.
+     * @return The parsed payload data, or null if the buffer does not contain the whole frame yet.
+     * @throws IllegalArgumentException If the frame is invalid.
      */
-    private static PayloadData unsafeParsePayload(ByteBuffer payload) {
+    public static PayloadData parseFrame(ByteBuffer buffer) {
+        FrameDecodedEvent event = new FrameDecodedEvent();
+        event.begin();
+        PayloadData payload = readFrame(buffer);
+        if (payload != null && event.shouldCommit()) {
+            event.opCode = payload.opCode().name();
+            event.length = payload.length();
+            event.isFinal = payload.isFinal();
+            event.compressed = payload.rsv()[0] == 1;
+            event.commit();
+        }
+        return payload;
+    }
+
+    /**
+     * Parses the WebSocket frame starting at the position of the provided buffer.
+     *
+     * @param buffer The writable buffer containing the WebSocket frame, ready to be read.
+     * @return The parsed payload data, or null if the buffer does not contain the whole frame yet.
+     * @throws IllegalArgumentException If the frame is invalid.
+     * @see #parseFrame(ByteBuffer)
+     */
+    private static PayloadData readFrame(ByteBuffer buffer) {
         /*
          *  0                   1                   2                   3
          *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
@@ -174,53 +362,108 @@ public class RFC6455 {
          * |                     Payload Data continued ...                |
          * +---------------------------------------------------------------+
          */
-        ByteBuffer buffer = payload.duplicate().asReadOnlyBuffer();
-        buffer.flip();
-        // Read from the buffer until the data is available
-        boolean isFinal = readIsFinal(buffer);
-        int[] rsv = readRSVBits(buffer);
-        OpCode opcode = readOpCode(buffer);
-        boolean isMasked = readIsMasked(buffer);
-        // Read length and keep track of the buffer position
-        // The new buffer position will be the start of the data mask
-        int length = readLength(buffer, false);
+        long frameSize = readFrameSize(buffer);
+        if (frameSize == -1 || buffer.remaining() < frameSize)
+            return null;
+        if (frameSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Frame too large");
+
+        int start = buffer.position();
+        ByteBuffer frame = buffer.slice(start, (int) frameSize);
+        // Read the header of the frame
+        boolean isFinal = readIsFinal(frame);
+        int[] rsv = readRSVBits(frame);
+        OpCode opcode;
+        try {
+            opcode = readOpCode(frame);
+        } catch (NoSuchElementException e) {
+            throw new IllegalArgumentException("Unknown opcode");
+        }
+        boolean isMasked = readIsMasked(frame);
+        int headerSize = readHeaderSize(frame);
+        int length = (int) frameSize - headerSize;
         byte[] mask = isMasked ? new byte[DATA_MASK_SIZE] : null;
         if (isMasked) {
-            buffer.get(mask);
+            frame.get(headerSize - DATA_MASK_SIZE, mask);
         }
-        // The data is the remaining bytes in the buffer
-        ByteBuffer data = buffer.slice(buffer.position(), length);
-        return new PayloadData(buffer, isFinal, rsv, opcode, isMasked, length, mask, data);
+        // The data is the remaining bytes of the frame
+        ByteBuffer data = frame.slice(headerSize, length);
+        if (isMasked) {
+            unmask(data, mask);
+        }
+        // Move to the next frame
+        buffer.position(start + (int) frameSize);
+        return new PayloadData(frame, isFinal, rsv, opcode, isMasked, length, mask, data);
     }
 
     /**
      * Parses the payload data of a WebSocket frame.
      *
-     * @param payload The payload data of the WebSocket frame.
-     * @return The parsed payload data.
+     * @param payload The payload data of the WebSocket frame, written from offset 0.
+     * @return The parsed payload data, or null if the payload is not a whole valid frame.
      */
     public static PayloadData parsePayload(ByteBuffer payload) {
         try {
-            return unsafeParsePayload(payload.duplicate());
+            // Copy the payload, as the frame is unmasked in place
+            ByteBuffer copy = ByteBuffer.allocate(payload.position()).put(payload.duplicate().flip());
+            return parseFrame(copy.flip());
         } catch (Exception e) {
             return null;
         }
     }
 
+    /**
+     * Computes the size of the header of the WebSocket frame starting at the position of the buffer.
+     * <p>
+     * The header contains the first two bytes, the extended payload length and the masking key.
+     *
+     * @param buffer The buffer containing the WebSocket frame, starting at its position.
+     * @return The size of the header, or -1 if the buffer does not contain enough bytes to know it.
+     */
+    public static int readHeaderSize(ByteBuffer buffer) {
+        if (buffer.remaining() < 2)
+            return -1;
+        int size = 2 + switch (buffer.get(buffer.position() + 1) & LENGTH_MASK) {
+            case 127 -> Long.BYTES;
+            case 126 -> Short.BYTES;
+            default -> 0;
+        };
+        return readIsMasked(buffer) ? size + DATA_MASK_SIZE : size;
+    }
+
+    /**
+     * Computes the total size (header and payload data) of the WebSocket frame starting at the position of the buffer.
+     *
+     * @param buffer The buffer containing the WebSocket frame, starting at its position.
+     * @return The size of the frame, or -1 if the buffer does not contain the whole header yet.
+     * @throws IllegalArgumentException If the payload length is invalid.
+     */
+    public static long readFrameSize(ByteBuffer buffer) {
+        int headerSize = readHeaderSize(buffer);
+        if (headerSize == -1 || buffer.remaining() < headerSize)
+            return -1;
+        long length = readLength(buffer, true);
+        // The most significant bit of the length MUST be 0
+        if (length < 0)
+            throw new IllegalArgumentException("Invalid payload length");
+        return headerSize + length;
+    }
+
     /**
      * Checks if the request is a WebSocket upgrade request.
      *
      * @param request The HTTP request.
      * @return Whether the request is a WebSocket upgrade request.
      */
-    public static boolean isUpgradeRequest(String request) {
-        return request.startsWith("GET /") && request.contains("HTTP/1.1") &&
-                request.contains("Upgrade: websocket") &&
-                request.contains("Sec-WebSocket-Key: ");
+    public static boolean isUpgradeRequest(HandshakeRequest request) {
+        return request.method().equals("GET") && request.target().startsWith("/")
+                && request.version().equals("HTTP/1.1")
+                && request.headerContains("Upgrade", "websocket")
+                && request.header("Sec-WebSocket-Key") != null;
     }
 
     /**
-     * Create the key for the "Sec-WebSocket-Accept" header of the handshake upgrade response.
+     * Write the key for the "Sec-WebSocket-Accept" header of the handshake upgrade response.
      * <p>
      * For this header field, the server has to take the value (as present
      * in the header field, e.g., the base64-encoded [RFC4648] version minus
@@ -233,17 +476,17 @@ public class RFC6455 {
      * handshake.
      *
      * @param secWebSocketKey The value of the "Sec-WebSocket-Key" header field in the handshake request.
-     * @return the value of the "Sec-WebSocket-Accept" header field in the handshake response.
+     * @param response        The response to write the key into.
+     * @param offset          The offset of the key in the response.
      */
-    private static String encodeSha1AndBase64(String secWebSocketKey) {
-        String string = secWebSocketKey.concat(GUID);
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] sha1Result = digest.digest(string.getBytes());
-            return Base64.getEncoder().encodeToString(sha1Result);
-        } catch (NoSuchAlgorithmException ignored) {
-            return null;
-        }
+    private static void writeAcceptKey(String secWebSocketKey, byte[] response, int offset) {
+        // The digest of each thread is reused, digest() resets it
+        MessageDigest digest = SHA1.get();
+        for (int i = 0; i < secWebSocketKey.length(); i++)
+            digest.update((byte) secWebSocketKey.charAt(i));
+        digest.update(GUID_BYTES);
+        byte[] acceptKey = Base64.getEncoder().encode(digest.digest());
+        System.arraycopy(acceptKey, 0, response, offset, ACCEPT_KEY_LENGTH);
     }
 
     /**
@@ -255,30 +498,103 @@ public class RFC6455 {
      * clients talking to that server. To this end, the WebSocket client's
      * handshake is an HTTP Upgrade request.
      *
-     * @param content The content of the HTTP request.
+     * @param request The HTTP request.
+     * @return The encoded response.
+     * @throws IllegalArgumentException If the Sec-WebSocket-Key header is not present in the request.
+     */
+    public static ByteBuffer upgradeToWebsocket(HandshakeRequest request) {
+        return upgradeToWebsocket(request, null);
+    }
+
+    /**
+     * Creates the response to upgrade an HTTP connection to a WebSocket connection,
+     * with the extensions negotiated by the server.
+     *
+     * @param request    The HTTP request.
+     * @param extensions The value of the Sec-WebSocket-Extensions header of the response, or null if none.
+     * @return The encoded response.
+     * @throws IllegalArgumentException If the Sec-WebSocket-Key header is not present in the request.
+     */
+    public static ByteBuffer upgradeToWebsocket(HandshakeRequest request, String extensions) {
+        return upgradeToWebsocket(request, extensions, null);
+    }
+
+    /**
+     * Creates the response to upgrade an HTTP connection to a WebSocket connection,
+     * with the extensions and the subprotocol negotiated by the server.
+     * <p>
+     * The response is copied from a pre-encoded template, only the accept key,
+     * the extensions and the subprotocol are written into it.
+     *
+     * @param request     The HTTP request.
+     * @param extensions  The value of the Sec-WebSocket-Extensions header of the response, or null if none.
+     * @param subprotocol The value of the Sec-WebSocket-Protocol header of the response, or null if none.
+     * @return The encoded response.
      * @throws IllegalArgumentException If the Sec-WebSocket-Key header is not present in the request.
      */
-    public static String upgradeToWebsocket(String content) {
-        Pattern secWSKeyPattern = Pattern.compile("Sec-WebSocket-Key:\\s*(.*?)\r\n");
-        Matcher secWSKeyMatcher = secWSKeyPattern.matcher(content);
+    public static ByteBuffer upgradeToWebsocket(HandshakeRequest request, String extensions, String subprotocol) {
+        String secWebSocketKey = request.header("Sec-WebSocket-Key");
 
         // If the Sec-WebSocket-Key header is not present, close the connection
-        if (!secWSKeyMatcher.find()) {
+        if (secWebSocketKey == null) {
             throw new IllegalArgumentException("Sec-WebSocket-Key header not found");
         }
 
+        int extensionsLength = extensions == null ? 0 : EXTENSIONS_HEADER.length + extensions.length();
+        int subprotocolLength = subprotocol == null ? 0 : PROTOCOL_HEADER.length + subprotocol.length();
+        byte[] response = new byte[UPGRADE_RESPONSE.length + extensionsLength + subprotocolLength];
+        System.arraycopy(UPGRADE_RESPONSE, 0, response, 0, ACCEPT_KEY_OFFSET);
         // Generate the Sec-WebSocket-Accept header value
-        String secWebSocketKey = secWSKeyMatcher.group(1);
-        String secWSAcceptHeader = encodeSha1AndBase64(secWebSocketKey);
+        writeAcceptKey(secWebSocketKey, response, ACCEPT_KEY_OFFSET);
+        int position = ACCEPT_KEY_OFFSET + ACCEPT_KEY_LENGTH;
+        if (extensions != null)
+            position = writeHeader(EXTENSIONS_HEADER, extensions, response, position);
+        if (subprotocol != null)
+            position = writeHeader(PROTOCOL_HEADER, subprotocol, response, position);
+        // End of the headers
+        System.arraycopy(UPGRADE_RESPONSE, ACCEPT_KEY_OFFSET + ACCEPT_KEY_LENGTH, response, position,
+                UPGRADE_RESPONSE.length - ACCEPT_KEY_OFFSET - ACCEPT_KEY_LENGTH);
+        return ByteBuffer.wrap(response);
+    }
 
-        // Create the handshake response
-        StringJoiner responseBuilder = new StringJoiner("\r\n");
-        responseBuilder.add("HTTP/1.1 101 Switching Protocols");
-        responseBuilder.add("Upgrade: websocket");
-        responseBuilder.add("Connection: Upgrade");
-        responseBuilder.add("Sec-WebSocket-Accept: " + secWSAcceptHeader);
-        responseBuilder.add("\r\n");
-        return responseBuilder.toString();
+    /**
+     * Write a header of the upgrade response, from its pre-encoded start and its ASCII value.
+     *
+     * @param header   The pre-encoded start of the header, including its name.
+     * @param value    The value of the header.
+     * @param response The response to write the header into.
+     * @param position The position of the header in the response.
+     * @return The position following the header.
+     */
+    private static int writeHeader(byte[] header, String value, byte[] response, int position) {
+        System.arraycopy(header, 0, response, position, header.length);
+        position += header.length;
+        for (int i = 0; i < value.length(); i++)
+            response[position++] = (byte) value.charAt(i);
+        return position;
+    }
+
+    /**
+     * Selects the subprotocol of a connection among the ones offered by the client.
+     * <p>
+     * The server picks the first of its supported subprotocols offered by the client,
+     * so its own order of preference prevails over the one of the client.
+     *
+     * @param offered   The value of the Sec-WebSocket-Protocol header of the request, or null if none.
+     * @param supported The subprotocols supported by the server, by order of preference.
+     * @return The selected subprotocol, or null if the client offered none of the supported ones.
+     */
+    public static String negotiateSubprotocol(String offered, List<String> supported) {
+        if (offered == null) return null;
+        String[] tokens = offered.split(",");
+        for (String subprotocol : supported) {
+            for (String token : tokens) {
+                // Subprotocol names are case-sensitive
+                if (token.trim().equals(subprotocol))
+                    return subprotocol;
+            }
+        }
+        return null;
     }
 
     /**
@@ -323,11 +639,11 @@ public class RFC6455 {
      * %xA denotes a pong<br>
      * %xB-F are reserved for further control frames<br>
      *
-     * @param buffer The buffer containing the WebSocket frame.
+     * @param buffer The buffer containing the WebSocket frame, starting at its position.
      * @return The value of the opcode bits.
      */
     private static int readOpCodeBits(ByteBuffer buffer) {
-        return buffer.get(0) & OPCODE_MASK;
+        return buffer.get(buffer.position()) & OPCODE_MASK;
     }
 
     /**
@@ -335,7 +651,7 @@ public class RFC6455 {
      * <p>
      * Defines the interpretation of the "Payload data".
      *
-     * @param buffer The buffer containing the WebSocket frame.
+     * @param buffer The buffer containing the WebSocket frame, starting at its position.
      * @return The value of the opcode bits.
      */
     public static OpCode readOpCode(ByteBuffer buffer) {
@@ -351,12 +667,12 @@ public class RFC6455 {
      * If a nonzero value is received and none of the negotiated extensions defines the meaning
      * of such a nonzero value, the receiving endpoint MUST Fail the WebSocket Connection.
      *
-     * @param buffer The buffer containing the WebSocket frame.
+     * @param buffer The buffer containing the WebSocket frame, starting at its position.
      * @return The value of the RSV bits.
      */
     public static int[] readRSVBits(ByteBuffer buffer) {
         int[] rsv = new int[RSV_BITS];
-        int firstByte = buffer.get(0);
+        int firstByte = buffer.get(buffer.position());
         for (int i = 0; i < rsv.length; i++) {
             int shift = FIRST_RSV_POS - i;
             int mask = 1 << shift;
@@ -372,11 +688,11 @@ public class RFC6455 {
      * Indicates that this is the final fragment in a message.
      * The first fragment MAY also be the final fragment.
      *
-     * @param buffer The buffer containing the WebSocket frame.
+     * @param buffer The buffer containing the WebSocket frame, starting at its position.
      * @return The value of the FIN bit.
      */
     public static boolean readIsFinal(ByteBuffer buffer) {
-        return (buffer.get(0) & FIN_MASK) >> FIN_BIT_POS == 1;
+        return (buffer.get(buffer.position()) & FIN_MASK) >> FIN_BIT_POS == 1;
     }
 
     /**
@@ -386,12 +702,12 @@ public class RFC6455 {
      * @param immutableOperation Whether the buffer position should change or not.
      * @return The length of the payload data.
      */
-    private static int readLength(ByteBuffer buffer, boolean immutableOperation) {
-        int length = buffer.get(1) & LENGTH_MASK;
+    private static long readLength(ByteBuffer buffer, boolean immutableOperation) {
         int bufferPos = buffer.position();
-        buffer.position(2);
-        switch (length) {
-            case 127 -> length = (int) buffer.getLong();
+        long length = buffer.get(bufferPos + 1) & LENGTH_MASK;
+        buffer.position(bufferPos + 2);
+        switch ((int) length) {
+            case 127 -> length = buffer.getLong();
             case 126 -> length = Short.toUnsignedInt(buffer.getShort());
         }
         if (immutableOperation)
@@ -408,11 +724,11 @@ public class RFC6455 {
      * If set to 1, a masking key is present in masking-key, and this
      * is used to unmask the "Payload data" as per Section 5.3.
      *
-     * @param buffer The buffer containing the WebSocket frame.
+     * @param buffer The buffer containing the WebSocket frame, starting at its position.
      * @return The value of the mask bit.
      */
     public static boolean readIsMasked(ByteBuffer buffer) {
-        return ((buffer.get(1) & IS_MASKED_MASK) >> IS_MASKED_POS) == 1;
+        return ((buffer.get(buffer.position() + 1) & IS_MASKED_MASK) >> IS_MASKED_POS) == 1;
     }
 
     /**
@@ -436,10 +752,10 @@ public class RFC6455 {
      * zero, in which case the payload length is the length of the
      * "Application data".
      *
-     * @param buffer The buffer containing the WebSocket frame.
+     * @param buffer The buffer containing the WebSocket frame, starting at its position.
      * @return The length of the payload data.
      */
     public int readLength(ByteBuffer buffer) {
-        return readLength(buffer, true);
+        return (int) readLength(buffer, true);
     }
 }
@@ -0,0 +1,83 @@
+package ch.epfl.chacun.server.rfc6455;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A strict UTF-8 decoder for the payload data of text messages.
+ * <p>
+ * Each thread reuses its own decoder and character buffer, so decoding a message does not allocate
+ * anything once the buffer is large enough. The decoded text is a view on this buffer:
+ * it is only valid until the next message is decoded by the same thread.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class TextDecoder {
+
+    /**
+     * The initial capacity of the character buffer.
+     */
+    private static final int INITIAL_CAPACITY = 512;
+
+    /**
+     * The decoder of each thread.
+     */
+    private static final ThreadLocal<TextDecoder> DECODERS = ThreadLocal.withInitial(TextDecoder::new);
+
+    /**
+     * The UTF-8 decoder, reporting any invalid byte sequence.
+     */
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    /**
+     * The reusable buffer receiving the decoded characters.
+     */
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Non-instantiable outside of this class.
+     */
+    private TextDecoder() {
+    }
+
+    /**
+     * Decode UTF-8 data using the decoder of the current thread.
+     *
+     * @param data the UTF-8 data, from its position to its limit, which is not consumed
+     * @return a view on the decoded text, valid until the next call from the same thread
+     * @throws CharacterCodingException if the data is not valid UTF-8
+     */
+    public static CharSequence decode(ByteBuffer data) throws CharacterCodingException {
+        return DECODERS.get().decodeUtf8(data);
+    }
+
+    /**
+     * Decode UTF-8 data into the reusable character buffer.
+     *
+     * @param data the UTF-8 data, which is not consumed
+     * @return a view on the decoded text
+     * @throws CharacterCodingException if the data is not valid UTF-8
+     */
+    private CharSequence decodeUtf8(ByteBuffer data) throws CharacterCodingException {
+        // A UTF-8 byte never produces more than one character
+        int capacity = (int) (data.remaining() * (double) decoder.maxCharsPerByte());
+        if (chars.capacity() < capacity)
+            chars = CharBuffer.allocate(Math.max(capacity, chars.capacity() * 2));
+        chars.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(data.duplicate(), chars, true);
+        if (result.isError())
+            result.throwException();
+        result = decoder.flush(chars);
+        if (result.isError())
+            result.throwException();
+        return chars.flip();
+    }
+}
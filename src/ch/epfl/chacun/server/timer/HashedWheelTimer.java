@@ -0,0 +1,217 @@
+package ch.epfl.chacun.server.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel, running a large number of coarse-grained timeouts on a single thread.
+ * <p>
+ * The wheel is an array of buckets, one per tick. A timeout is hashed to the bucket of the tick of its
+ * deadline, along with the number of whole turns of the wheel left before it expires. Scheduling and
+ * cancelling a timeout are O(1), and each tick only visits the timeouts of a single bucket: as long as
+ * the wheel spans the usual timeouts, these are the timeouts expiring during that tick.
+ * <p>
+ * Timeouts are scheduled from any thread: they are queued and moved to their bucket by the timer thread
+ * at the next tick. Tasks run on the timer thread and should be short.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class HashedWheelTimer implements Scheduler {
+
+    /**
+     * The maximum number of timeouts moved to their bucket at each tick, not to delay expirations.
+     */
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    /**
+     * The duration of a tick (in nanoseconds).
+     */
+    private final long tickDuration;
+
+    /**
+     * The buckets of the wheel, only accessed by the timer thread.
+     */
+    private final Bucket[] wheel;
+
+    /**
+     * The mask giving the bucket of a tick, the size of the wheel being a power of two.
+     */
+    private final int mask;
+
+    /**
+     * The timeouts scheduled since the last tick.
+     */
+    private final Queue<WheelTimeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The timeouts cancelled since the last tick, to be removed from their bucket.
+     */
+    private final Queue<WheelTimeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The time at which the timer has started (as given by {@link System#nanoTime()}).
+     */
+    private final long startTime;
+
+    /**
+     * The number of ticks elapsed since the timer has started, only accessed by the timer thread.
+     */
+    private long tick;
+
+    /**
+     * Create and start a new timer.
+     *
+     * @param name         the name of the timer thread
+     * @param tickDuration the duration of a tick, which is the precision of the timer
+     * @param unit         the unit of the tick duration
+     * @param wheelSize    the number of buckets of the wheel, rounded up to a power of two
+     * @throws IllegalArgumentException if the tick duration or the size of the wheel is not positive
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0 || wheelSize > 1 << 30)
+            throw new IllegalArgumentException("Invalid timer settings");
+        this.tickDuration = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.wheel = new Bucket[Math.max(size, 1)];
+        for (int i = 0; i < wheel.length; i++)
+            wheel[i] = new Bucket();
+        this.mask = wheel.length - 1;
+        this.startTime = System.nanoTime();
+        Thread.ofPlatform().name(name).daemon().start(this::run);
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        WheelTimeout timeout = new WheelTimeout(this, task, System.nanoTime() + unit.toNanos(delay));
+        scheduled.offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * Called by a timeout once it has been cancelled.
+     *
+     * @param timeout the cancelled timeout
+     */
+    void cancelled(WheelTimeout timeout) {
+        cancelled.offer(timeout);
+    }
+
+    /**
+     * Advance the wheel tick by tick, for ever.
+     */
+    private void run() {
+        while (true) {
+            long now = waitForNextTick();
+            removeCancelled();
+            transferScheduled();
+            wheel[(int) (tick & mask)].expire(now);
+            tick++;
+        }
+    }
+
+    /**
+     * Sleep until the start of the next tick.
+     *
+     * @return the current time (as given by {@link System#nanoTime()})
+     */
+    private long waitForNextTick() {
+        long deadline = startTime + (tick + 1) * tickDuration;
+        long now;
+        while ((now = System.nanoTime()) - deadline < 0) {
+            LockSupport.parkNanos(this, deadline - now);
+        }
+        return now;
+    }
+
+    /**
+     * Remove the cancelled timeouts from their bucket.
+     */
+    private void removeCancelled() {
+        WheelTimeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+        }
+    }
+
+    /**
+     * Move the timeouts scheduled since the last tick to the bucket of their deadline.
+     */
+    private void transferScheduled() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            WheelTimeout timeout = scheduled.poll();
+            if (timeout == null) return;
+            if (timeout.isCancelled()) continue;
+            long expirationTick = (timeout.deadline - startTime) / tickDuration;
+            timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+            // A timeout whose deadline has already passed expires at the current tick
+            long bucketTick = Math.max(expirationTick, tick);
+            wheel[(int) (bucketTick & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * A bucket of the wheel: a doubly linked list of timeouts, for O(1) removals.
+     */
+    static final class Bucket {
+
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        /**
+         * Add a timeout to the bucket.
+         *
+         * @param timeout the timeout to add
+         */
+        private void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        /**
+         * Remove a timeout from the bucket.
+         *
+         * @param timeout the timeout to remove
+         * @return the timeout following the removed one
+         */
+        private WheelTimeout remove(WheelTimeout timeout) {
+            WheelTimeout next = timeout.next;
+            if (timeout.previous != null) timeout.previous.next = next;
+            if (next != null) next.previous = timeout.previous;
+            if (timeout == head) head = next;
+            if (timeout == tail) tail = timeout.previous;
+            timeout.previous = timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        /**
+         * Expire the timeouts of the current turn of the wheel, and count down the others.
+         *
+         * @param now the current time (as given by {@link System#nanoTime()})
+         */
+        private void expire(long now) {
+            WheelTimeout timeout = head;
+            while (timeout != null) {
+                if (timeout.isCancelled()) {
+                    timeout = remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    WheelTimeout next = remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                } else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ch.epfl.chacun.server.timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks once a delay has elapsed.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public interface Scheduler {
+
+    /**
+     * Schedule a task to run once the given delay has elapsed. May be called from any thread.
+     *
+     * @param task  the task to run
+     * @param delay the delay before the task runs
+     * @param unit  the unit of the delay
+     * @return the timeout, which can be cancelled
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit);
+}
@@ -0,0 +1,90 @@
+package ch.epfl.chacun.server.timer;
+
+import ch.epfl.chacun.server.log.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A task scheduled to run once after a delay, which can be cancelled from any thread until it runs.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public abstract class Timeout {
+
+    /**
+     * The log of the timers.
+     */
+    private static final Log LOG = Log.get("timer");
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    /**
+     * The task to run once the timeout expires.
+     */
+    private final Runnable task;
+
+    /**
+     * The state of the timeout.
+     */
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    /**
+     * Create a new timeout.
+     *
+     * @param task the task to run once the timeout expires
+     */
+    protected Timeout(Runnable task) {
+        this.task = task;
+    }
+
+    /**
+     * Cancel the timeout, unless it has already expired.
+     *
+     * @return true if the timeout has been cancelled, false if it had already expired or been cancelled
+     */
+    public boolean cancel() {
+        if (!state.compareAndSet(PENDING, CANCELLED))
+            return false;
+        cancelled();
+        return true;
+    }
+
+    /**
+     * Called once the timeout has been cancelled, so that its scheduler can let go of it early.
+     */
+    protected void cancelled() {
+    }
+
+    /**
+     * Whether the timeout has been cancelled.
+     *
+     * @return true if the timeout has been cancelled, false otherwise
+     */
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    /**
+     * Whether the timeout has expired.
+     *
+     * @return true if the task of the timeout has been run, false otherwise
+     */
+    public boolean isExpired() {
+        return state.get() == EXPIRED;
+    }
+
+    /**
+     * Run the task of the timeout, unless it has been cancelled in the meantime.
+     */
+    protected void expire() {
+        if (!state.compareAndSet(PENDING, EXPIRED))
+            return;
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.warn("A timeout task has failed", e);
+        }
+    }
+}
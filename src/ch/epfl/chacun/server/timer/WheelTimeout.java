@@ -0,0 +1,43 @@
+package ch.epfl.chacun.server.timer;
+
+/**
+ * A task scheduled on a {@link HashedWheelTimer}.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class WheelTimeout extends Timeout {
+
+    /**
+     * The timer the timeout is scheduled on.
+     */
+    private final HashedWheelTimer timer;
+
+    /**
+     * The time at which the timeout expires (as given by {@link System#nanoTime()}).
+     */
+    final long deadline;
+
+    // The position of the timeout in the wheel, only accessed by the timer thread
+    long remainingRounds;
+    HashedWheelTimer.Bucket bucket;
+    WheelTimeout previous;
+    WheelTimeout next;
+
+    /**
+     * Create a new timeout.
+     *
+     * @param timer    the timer the timeout is scheduled on
+     * @param task     the task to run once the timeout expires
+     * @param deadline the time at which the timeout expires (as given by {@link System#nanoTime()})
+     */
+    WheelTimeout(HashedWheelTimer timer, Runnable task, long deadline) {
+        super(task);
+        this.timer = timer;
+        this.deadline = deadline;
+    }
+
+    @Override
+    protected void cancelled() {
+        timer.cancelled(this);
+    }
+}
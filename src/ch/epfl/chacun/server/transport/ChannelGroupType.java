@@ -0,0 +1,29 @@
+package ch.epfl.chacun.server.transport;
+
+/**
+ * The thread pools the completion handlers of the NIO2 transport can run on.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public enum ChannelGroupType {
+
+    /**
+     * The default channel group of the JVM, sized by system properties.
+     */
+    DEFAULT,
+
+    /**
+     * A fixed number of threads.
+     */
+    FIXED,
+
+    /**
+     * Threads created on demand and kept alive for a while, starting with the given number of threads.
+     */
+    CACHED,
+
+    /**
+     * A new virtual thread for each completion handler.
+     */
+    VIRTUAL
+}
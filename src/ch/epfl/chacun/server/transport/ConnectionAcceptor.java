@@ -0,0 +1,19 @@
+package ch.epfl.chacun.server.transport;
+
+/**
+ * Accepts the connections opened on a transport.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+@FunctionalInterface
+public interface ConnectionAcceptor {
+
+    /**
+     * Called when a new connection is accepted, before anything is read from it.
+     *
+     * @param connection the new connection
+     * @return the handler of the bytes read from the connection,
+     * or null if the connection has been rejected and closed, in which case it is never read
+     */
+    ConnectionHandler accept(TransportConnection connection);
+}
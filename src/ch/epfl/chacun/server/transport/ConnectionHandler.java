@@ -0,0 +1,43 @@
+package ch.epfl.chacun.server.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Handles the bytes read from a connection.
+ * <p>
+ * The transport reads into the buffer given by the handler and notifies it once the read has completed.
+ * Reads of a connection never overlap, so the handler may keep its state without synchronization.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public interface ConnectionHandler {
+
+    /**
+     * Returns the buffer the next read should be written into.
+     *
+     * @return the buffer to read into
+     */
+    ByteBuffer readBuffer();
+
+    /**
+     * Returns the time the next read may take before failing.
+     *
+     * @return the timeout of the next read (in nanoseconds), or 0 if the read should never time out
+     */
+    long readTimeout();
+
+    /**
+     * Called when a read has completed.
+     *
+     * @param bytes the number of bytes read, or -1 if the client has closed the connection
+     * @return true if the transport should start the next read, false to stop reading
+     */
+    boolean readCompleted(int bytes);
+
+    /**
+     * Called when a read has failed, including when it has timed out. No more read is started.
+     *
+     * @param exc the cause of the failure
+     */
+    void readFailed(Throwable exc);
+}
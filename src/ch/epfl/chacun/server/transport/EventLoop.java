@@ -0,0 +1,230 @@
+package ch.epfl.chacun.server.transport;
+
+import ch.epfl.chacun.server.log.Log;
+import ch.epfl.chacun.server.timer.Scheduler;
+import ch.epfl.chacun.server.timer.Timeout;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An event loop running on its own thread, multiplexing the connections registered to its selector.
+ * <p>
+ * Every read, write and timer of a connection runs on the thread of its event loop, so the state of
+ * a connection is only ever touched by a single thread. Other threads submit tasks to the loop.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class EventLoop implements Runnable, Scheduler {
+
+    /**
+     * The log of the transport.
+     */
+    private static final Log LOG = Log.get("transport");
+
+    /**
+     * The selector of the connections of the loop.
+     */
+    private final Selector selector;
+
+    /**
+     * The thread running the loop.
+     */
+    private final Thread thread;
+
+    /**
+     * The tasks submitted by other threads, run on the next iteration of the loop.
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The timers of the loop, by deadline. Only accessed by the thread of the loop.
+     */
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+    /**
+     * Whether the selector has already been woken up since the last select.
+     */
+    private final AtomicBoolean wokenUp = new AtomicBoolean(false);
+
+    /**
+     * Create a new event loop, not started yet.
+     *
+     * @param name the name of the thread of the loop
+     * @throws IOException if the selector cannot be opened
+     */
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = Thread.ofPlatform().name(name).unstarted(this);
+    }
+
+    /**
+     * Start the thread of the loop.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Returns the selector of the loop.
+     *
+     * @return the selector
+     */
+    Selector selector() {
+        return selector;
+    }
+
+    /**
+     * Whether the current thread is the thread of the loop.
+     *
+     * @return true if called from the loop, false otherwise
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run a task on the loop, after the events currently being handled.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        tasks.offer(task);
+        if (!inEventLoop() && wokenUp.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    /**
+     * Schedule a task to run on the loop after a delay.
+     * <p>
+     * A timer scheduled from another thread is added to the timers of the loop on its next iteration.
+     */
+    @Override
+    public Timer schedule(Runnable task, long delay, TimeUnit unit) {
+        Timer timer = new Timer(System.nanoTime() + unit.toNanos(delay), task);
+        if (inEventLoop())
+            timers.offer(timer);
+        else
+            execute(() -> timers.offer(timer));
+        return timer;
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SelectorConnection connection = (SelectorConnection) key.attachment();
+                    try {
+                        connection.handle(key);
+                    } catch (RuntimeException e) {
+                        // A failure of a connection must not stop the loop
+                        LOG.warn("Failed to handle the events of a connection", e);
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch (IOException e) {
+                LOG.warn("Failed to select the ready connections", "cause", e.getMessage());
+            }
+            runTasks();
+            runTimers();
+        }
+    }
+
+    /**
+     * Wait for an event on the connections, a task or the next timer.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void select() throws IOException {
+        wokenUp.set(false);
+        if (!tasks.isEmpty()) {
+            selector.selectNow();
+            return;
+        }
+        Timer next = timers.peek();
+        if (next == null) {
+            selector.select();
+        } else {
+            long delay = next.deadline - System.nanoTime();
+            // A timeout of zero would block indefinitely
+            long timeout = Math.max(TimeUnit.NANOSECONDS.toMillis(delay + TimeUnit.MILLISECONDS.toNanos(1) - 1), 1);
+            selector.select(timeout);
+        }
+    }
+
+    /**
+     * Run the tasks submitted to the loop, including those submitted while running them.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runSafely(task);
+        }
+    }
+
+    /**
+     * Run the timers whose deadline has passed.
+     */
+    private void runTimers() {
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = timers.peek()) != null && timer.deadline - now <= 0) {
+            timers.poll();
+            timer.run();
+        }
+    }
+
+    /**
+     * Run a task, making sure a failure does not stop the loop.
+     *
+     * @param task the task to run
+     */
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.warn("A task of the event loop has failed", e);
+        }
+    }
+
+    /**
+     * A task scheduled on the loop.
+     * <p>
+     * A cancelled timer stays in the queue until its deadline, where it is dropped.
+     */
+    static final class Timer extends Timeout implements Comparable<Timer> {
+
+        private final long deadline;
+
+        /**
+         * Create a new timer.
+         *
+         * @param deadline the time at which the task runs (as given by {@link System#nanoTime()})
+         * @param task     the task to run
+         */
+        private Timer(long deadline, Runnable task) {
+            super(task);
+            this.deadline = deadline;
+        }
+
+        /**
+         * Run the task of the timer on the loop, unless it has been cancelled.
+         */
+        private void run() {
+            expire();
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ch.epfl.chacun.server.transport;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An executor counting the tasks it runs, whatever the executor it delegates to.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class InstrumentedExecutor extends AbstractExecutorService {
+
+    /**
+     * The executor running the tasks.
+     */
+    private final ExecutorService delegate;
+
+    /**
+     * The number of tasks submitted but not started yet.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * The number of tasks being run.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * The number of tasks completed.
+     */
+    private final LongAdder completed = new LongAdder();
+
+    /**
+     * Create a new instrumented executor.
+     *
+     * @param delegate the executor running the tasks
+     */
+    InstrumentedExecutor(ExecutorService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        queued.incrementAndGet();
+        delegate.execute(() -> {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                command.run();
+            } finally {
+                active.decrementAndGet();
+                completed.increment();
+            }
+        });
+    }
+
+    /**
+     * Returns a snapshot of the activity of the executor.
+     *
+     * @return the statistics of the executor
+     */
+    ThreadPoolStats stats() {
+        int poolSize = delegate instanceof ThreadPoolExecutor pool ? pool.getPoolSize() : -1;
+        return new ThreadPoolStats(poolSize, active.get(), queued.get(), completed.sum());
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
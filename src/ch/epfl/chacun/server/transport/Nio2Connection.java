@@ -0,0 +1,132 @@
+package ch.epfl.chacun.server.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A connection accepted by the NIO2 transport.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class Nio2Connection implements TransportConnection {
+
+    /**
+     * The underlying asynchronous socket channel.
+     */
+    private final AsynchronousSocketChannel channel;
+
+    /**
+     * The handler of the completed reads, starting the next read when asked to.
+     */
+    private final CompletionHandler<Integer, ConnectionHandler> readHandler = new CompletionHandler<>() {
+        @Override
+        public void completed(Integer result, ConnectionHandler handler) {
+            boolean readNext;
+            try {
+                readNext = handler.readCompleted(result);
+            } catch (RuntimeException e) {
+                // The group thread would swallow the exception, leaving the connection open forever
+                handler.readFailed(e);
+                return;
+            }
+            if (readNext)
+                startRead(handler);
+        }
+
+        @Override
+        public void failed(Throwable exc, ConnectionHandler handler) {
+            handler.readFailed(exc);
+        }
+    };
+
+    /**
+     * Create a new connection.
+     *
+     * @param channel the underlying asynchronous socket channel
+     */
+    Nio2Connection(AsynchronousSocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Start reading asynchronously from the client.
+     *
+     * @param handler the handler of the bytes read
+     */
+    void startRead(ConnectionHandler handler) {
+        // A timeout of zero means no timeout at all
+        channel.read(handler.readBuffer(), handler.readTimeout(), TimeUnit.NANOSECONDS, handler, readHandler);
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, WriteHandler handler) {
+        new GatheringWrite(buffers).start(0, handler);
+    }
+
+    @Override
+    public SocketAddress remoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException _) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A gathering write, continued until every buffer has been fully written.
+     */
+    private final class GatheringWrite implements CompletionHandler<Long, WriteHandler> {
+
+        private final ByteBuffer[] buffers;
+
+        /**
+         * Create a new gathering write.
+         *
+         * @param buffers the buffers to write
+         */
+        private GatheringWrite(ByteBuffer[] buffers) {
+            this.buffers = buffers;
+        }
+
+        /**
+         * Start to write asynchronously the buffers, starting at the given offset.
+         *
+         * @param offset  the index of the first buffer to write
+         * @param handler the handler to notify once the write has completed
+         */
+        private void start(int offset, WriteHandler handler) {
+            channel.write(buffers, offset, buffers.length - offset, 0, TimeUnit.MILLISECONDS, handler, this);
+        }
+
+        @Override
+        public void completed(Long result, WriteHandler handler) {
+            // A gathering write may be partial, continue with what is left
+            for (int i = 0; i < buffers.length; i++) {
+                if (buffers[i].hasRemaining()) {
+                    start(i, handler);
+                    return;
+                }
+            }
+            handler.completed();
+        }
+
+        @Override
+        public void failed(Throwable exc, WriteHandler handler) {
+            handler.failed(exc);
+        }
+    }
+}
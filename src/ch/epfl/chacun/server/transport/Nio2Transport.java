@@ -0,0 +1,168 @@
+package ch.epfl.chacun.server.transport;
+
+import ch.epfl.chacun.server.log.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transport built on asynchronous socket channels.
+ * <p>
+ * The completion handlers run on the thread pool of the channel group of the transport. Unless the default
+ * group of the JVM is used, the group is built from the settings of the server, with named threads.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class Nio2Transport implements Transport {
+
+    /**
+     * The log of the transport.
+     */
+    private static final Log LOG = Log.get("transport");
+
+    /**
+     * Runs the accepts retried after a failed accept, once the backoff has elapsed.
+     */
+    private static final Executor ACCEPT_BACKOFF = CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS);
+
+    /**
+     * The address to bind to.
+     */
+    private final InetSocketAddress address;
+
+    /**
+     * The settings of the transport.
+     */
+    private final TransportConfig config;
+
+    /**
+     * The executor of the channel group, or null if the default group of the JVM is used.
+     */
+    private InstrumentedExecutor executor;
+
+    /**
+     * Create a new NIO2 transport.
+     *
+     * @param address the address to bind to
+     * @param config  the settings of the transport
+     */
+    Nio2Transport(InetSocketAddress address, TransportConfig config) {
+        this.address = address;
+        this.config = config;
+    }
+
+    @Override
+    public void start(ConnectionAcceptor acceptor) throws IOException {
+        AsynchronousChannelGroup group = createGroup();
+        AcceptHandler acceptHandler = new AcceptHandler(acceptor, config);
+        // Each listening socket has its own chain of accepts
+        for (int i = 0; i < config.acceptors(); i++) {
+            // Create a socket channel and bind to local bind address
+            AsynchronousServerSocketChannel serverSock = AsynchronousServerSocketChannel.open(group);
+            config.configureListener(serverSock);
+            serverSock.bind(address, config.backlog());
+            // Start to accept the connection from client
+            serverSock.accept(serverSock, acceptHandler);
+        }
+    }
+
+    /**
+     * Create the channel group of the transport.
+     *
+     * @return the channel group, or null to use the default group of the JVM
+     * @throws IOException if the group cannot be created
+     */
+    private AsynchronousChannelGroup createGroup() throws IOException {
+        ThreadFactory threads = Thread.ofPlatform().name("websocket-io-", 0).factory();
+        int groupThreads = config.channelGroupThreads();
+        executor = switch (config.channelGroup()) {
+            case DEFAULT -> null;
+            case FIXED -> new InstrumentedExecutor(new ThreadPoolExecutor(groupThreads, groupThreads,
+                    0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threads));
+            case CACHED -> new InstrumentedExecutor(new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    60, TimeUnit.SECONDS, new SynchronousQueue<>(), threads));
+            case VIRTUAL -> new InstrumentedExecutor(Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("websocket-io-", 0).factory()));
+        };
+        if (executor == null)
+            return null;
+        // The handlers are dispatched by the internal threads of the group to the instrumented executor
+        return config.channelGroup() == ChannelGroupType.CACHED
+                ? AsynchronousChannelGroup.withCachedThreadPool(executor, groupThreads)
+                : AsynchronousChannelGroup.withThreadPool(executor);
+    }
+
+    @Override
+    public ThreadPoolStats threadPoolStats() {
+        InstrumentedExecutor groupExecutor = executor;
+        return groupExecutor == null ? null : groupExecutor.stats();
+    }
+
+    /**
+     * Handles the connection of a new client.
+     * <p>
+     * The handler is shared by every listening socket, which is given as the attachment of each accept.
+     */
+    private static final class AcceptHandler
+            implements CompletionHandler<AsynchronousSocketChannel, AsynchronousServerSocketChannel> {
+
+        private final ConnectionAcceptor acceptor;
+        private final TransportConfig config;
+
+        /**
+         * Create a new accept handler.
+         *
+         * @param acceptor the acceptor of the new connections
+         * @param config   the settings of the transport
+         */
+        private AcceptHandler(ConnectionAcceptor acceptor, TransportConfig config) {
+            this.acceptor = acceptor;
+            this.config = config;
+        }
+
+        @Override
+        public void completed(AsynchronousSocketChannel channel, AsynchronousServerSocketChannel serverSock) {
+            // A connection is accepted, start to accept next connection
+            serverSock.accept(serverSock, this);
+            try {
+                config.configureConnection(channel);
+            } catch (IOException e) {
+                LOG.warn("Failed to configure a connection", "cause", e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException _) {
+                    // Ignore
+                }
+                return;
+            }
+            Nio2Connection connection = new Nio2Connection(channel);
+            // Start to read message from the client, unless the connection has been rejected
+            ConnectionHandler handler = acceptor.accept(connection);
+            if (handler != null)
+                connection.startRead(handler);
+        }
+
+        @Override
+        public void failed(Throwable exc, AsynchronousServerSocketChannel serverSock) {
+            if (!serverSock.isOpen()) return;
+            LOG.warn("Failed to accept a connection", "cause", exc.getMessage());
+            // Wait before accepting again, so that a persistent failure does not spin the group
+            ACCEPT_BACKOFF.execute(() -> {
+                if (serverSock.isOpen())
+                    serverSock.accept(serverSock, this);
+            });
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package ch.epfl.chacun.server.transport;
+
+import ch.epfl.chacun.server.timer.Scheduler;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A connection accepted by the selector transport.
+ * <p>
+ * Apart from {@link #write} and {@link #close}, which hand their work over to the event loop,
+ * the state of the connection is only accessed by the thread of its event loop, without locks.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class SelectorConnection implements TransportConnection {
+
+    /**
+     * The underlying non-blocking socket channel.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The event loop of the connection.
+     */
+    private final EventLoop loop;
+
+    /**
+     * The key of the channel in the selector of the event loop.
+     */
+    private SelectionKey key;
+
+    /**
+     * The handler of the bytes read, or null once the connection does not read anymore.
+     */
+    private ConnectionHandler reader;
+
+    /**
+     * The timer failing the read in progress, or null if the read never times out.
+     */
+    private EventLoop.Timer readTimeout;
+
+    /**
+     * The buffers being written, or null if no write is in flight.
+     */
+    private ByteBuffer[] writeBuffers;
+
+    /**
+     * The handler of the write in flight, or null if no write is in flight.
+     */
+    private WriteHandler writer;
+
+    /**
+     * Create a new connection.
+     *
+     * @param channel the underlying socket channel, in non-blocking mode
+     * @param loop    the event loop of the connection
+     */
+    SelectorConnection(SocketChannel channel, EventLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    /**
+     * Register the connection to its event loop and start reading. Must be called from the loop.
+     *
+     * @param acceptor the acceptor of the new connections
+     */
+    void register(ConnectionAcceptor acceptor) {
+        try {
+            key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+        } catch (ClosedChannelException _) {
+            return;
+        }
+        reader = acceptor.accept(this);
+        // A rejected connection has already been closed
+        if (reader != null)
+            armReadTimeout();
+    }
+
+    /**
+     * Handle the events of the connection selected by the event loop.
+     *
+     * @param key the selected key of the connection
+     */
+    void handle(SelectionKey key) {
+        try {
+            int readyOps = key.readyOps();
+            if ((readyOps & SelectionKey.OP_WRITE) != 0)
+                continueWrite();
+            if ((readyOps & SelectionKey.OP_READ) != 0 && reader != null)
+                read();
+        } catch (CancelledKeyException _) {
+            // The connection has been closed in the meantime
+        }
+    }
+
+    /**
+     * Read the available bytes and give them to the handler.
+     */
+    private void read() {
+        ConnectionHandler handler = reader;
+        int bytes;
+        try {
+            bytes = channel.read(handler.readBuffer());
+        } catch (IOException e) {
+            stopReading();
+            handler.readFailed(e);
+            return;
+        }
+        if (bytes == 0) return;
+        cancelReadTimeout();
+        boolean readNext;
+        try {
+            readNext = handler.readCompleted(bytes);
+        } catch (RuntimeException e) {
+            // The event loop survives the exception, but the connection would be left open
+            stopReading();
+            handler.readFailed(e);
+            return;
+        }
+        if (readNext)
+            armReadTimeout();
+        else
+            stopReading();
+    }
+
+    /**
+     * Start the timer of the next read, if the handler asks for one.
+     */
+    private void armReadTimeout() {
+        long timeout = reader.readTimeout();
+        if (timeout > 0)
+            readTimeout = loop.schedule(this::readTimedOut, timeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cancel the timer of the read in progress.
+     */
+    private void cancelReadTimeout() {
+        if (readTimeout != null) {
+            readTimeout.cancel();
+            readTimeout = null;
+        }
+    }
+
+    /**
+     * Fail the read in progress because it has timed out.
+     */
+    private void readTimedOut() {
+        readTimeout = null;
+        ConnectionHandler handler = reader;
+        if (handler == null) return;
+        stopReading();
+        handler.readFailed(new InterruptedByTimeoutException());
+    }
+
+    /**
+     * Stop reading from the client.
+     */
+    private void stopReading() {
+        cancelReadTimeout();
+        reader = null;
+        if (key.isValid())
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, WriteHandler handler) {
+        // Always go through the task queue, a completed write may start the next one
+        loop.execute(() -> startWrite(buffers, handler));
+    }
+
+    /**
+     * Start writing the buffers. Must be called from the loop.
+     *
+     * @param buffers the buffers to write
+     * @param handler the handler of the write
+     */
+    private void startWrite(ByteBuffer[] buffers, WriteHandler handler) {
+        if (!channel.isOpen()) {
+            handler.failed(new ClosedChannelException());
+            return;
+        }
+        writeBuffers = buffers;
+        writer = handler;
+        continueWrite();
+    }
+
+    /**
+     * Write as many bytes as the socket accepts, and wait for it to be writable again if some bytes remain.
+     */
+    private void continueWrite() {
+        if (writer == null) return;
+        WriteHandler handler = writer;
+        try {
+            // The buffers are written in order, the write is complete once the last one is empty
+            long written;
+            do {
+                written = channel.write(writeBuffers);
+            } while (written > 0 && writeBuffers[writeBuffers.length - 1].hasRemaining());
+        } catch (IOException e) {
+            writeBuffers = null;
+            writer = null;
+            handler.failed(e);
+            return;
+        }
+        if (writeBuffers[writeBuffers.length - 1].hasRemaining()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            return;
+        }
+        writeBuffers = null;
+        writer = null;
+        if (key.isValid())
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        handler.completed();
+    }
+
+    @Override
+    public SocketAddress remoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException _) {
+            return null;
+        }
+    }
+
+    @Override
+    public Scheduler scheduler() {
+        return loop;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        // Fail the read and write in progress, as asynchronous channels do
+        loop.execute(this::closed);
+    }
+
+    /**
+     * Notify the handlers of the read and write in progress that the connection is closed.
+     */
+    private void closed() {
+        ConnectionHandler handler = reader;
+        if (handler != null) {
+            stopReading();
+            handler.readFailed(new AsynchronousCloseException());
+        }
+        WriteHandler pendingWriter = writer;
+        if (pendingWriter != null) {
+            writeBuffers = null;
+            writer = null;
+            pendingWriter.failed(new AsynchronousCloseException());
+        }
+    }
+}
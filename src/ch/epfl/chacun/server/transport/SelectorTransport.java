@@ -0,0 +1,115 @@
+package ch.epfl.chacun.server.transport;
+
+import ch.epfl.chacun.server.log.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A transport built on non-blocking channels, multiplexed by several selector event loops.
+ * <p>
+ * The accepted connections are spread round-robin across the loops, and each connection then stays
+ * on its loop for its whole life: its reads, writes and timers always run on the same thread,
+ * which keeps its state in the cache of a single core and needs no locks.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class SelectorTransport implements Transport {
+
+    /**
+     * The log of the transport.
+     */
+    private static final Log LOG = Log.get("transport");
+
+    /**
+     * The time the accept loop waits after a failed accept before trying again (in nanoseconds).
+     */
+    private static final long ACCEPT_BACKOFF = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The address to bind to.
+     */
+    private final InetSocketAddress address;
+
+    /**
+     * The settings of the transport.
+     */
+    private final TransportConfig config;
+
+    /**
+     * The number of connections accepted so far, used to pick the loop of the next connection.
+     */
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    /**
+     * Create a new selector transport.
+     *
+     * @param address the address to bind to
+     * @param config  the settings of the transport
+     */
+    SelectorTransport(InetSocketAddress address, TransportConfig config) {
+        this.address = address;
+        this.config = config;
+    }
+
+    @Override
+    public void start(ConnectionAcceptor acceptor) throws IOException {
+        EventLoop[] loops = new EventLoop[config.eventLoops()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(STR."websocket-event-loop-\{i}");
+            loops[i].start();
+        }
+        // Each listening socket has its own accept loop
+        for (int i = 0; i < config.acceptors(); i++) {
+            ServerSocketChannel serverSock = ServerSocketChannel.open();
+            config.configureListener(serverSock);
+            serverSock.bind(address, config.backlog());
+            Thread.ofPlatform().name(STR."websocket-acceptor-\{i}").start(() -> accept(serverSock, loops, acceptor));
+        }
+    }
+
+    /**
+     * Accept the connections until the server socket is closed, and hand them to the loops in turn.
+     * <p>
+     * The loops are shared by every listening socket, which keeps the round-robin across all of them.
+     * After a failed accept, the loop pauses briefly instead of spinning on an error that is likely to last.
+     *
+     * @param serverSock the server socket, in blocking mode
+     * @param loops      the event loops
+     * @param acceptor   the acceptor of the new connections
+     */
+    private void accept(ServerSocketChannel serverSock, EventLoop[] loops, ConnectionAcceptor acceptor) {
+        while (serverSock.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = serverSock.accept();
+            } catch (IOException e) {
+                if (!serverSock.isOpen()) return;
+                LOG.warn("Failed to accept a connection", "cause", e.getMessage());
+                LockSupport.parkNanos(ACCEPT_BACKOFF);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                config.configureConnection(channel);
+            } catch (IOException e) {
+                LOG.warn("Failed to configure a connection", "cause", e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException _) {
+                    // Ignore
+                }
+                continue;
+            }
+            EventLoop loop = loops[Math.floorMod(accepted.getAndIncrement(), loops.length)];
+            SelectorConnection connection = new SelectorConnection(channel, loop);
+            // The connection is registered by its own loop, as selectors are not meant to be shared
+            loop.execute(() -> connection.register(acceptor));
+        }
+    }
+}
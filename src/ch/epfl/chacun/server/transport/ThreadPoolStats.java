@@ -0,0 +1,13 @@
+package ch.epfl.chacun.server.transport;
+
+/**
+ * A snapshot of the activity of the thread pool of a transport.
+ *
+ * @param poolSize       The number of threads of the pool, or -1 if threads are created per task.
+ * @param activeThreads  The number of tasks being run.
+ * @param queuedTasks    The number of tasks waiting for a thread.
+ * @param completedTasks The number of tasks completed since the pool has been created.
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public record ThreadPoolStats(int poolSize, int activeThreads, int queuedTasks, long completedTasks) {
+}
@@ -0,0 +1,31 @@
+package ch.epfl.chacun.server.transport;
+
+import java.io.IOException;
+
+/**
+ * A transport accepting TCP connections and moving bytes between the sockets and the WebSocket layer.
+ * <p>
+ * The WebSocket server only sees {@link TransportConnection}s and {@link ConnectionHandler}s,
+ * so the same server runs unchanged whichever I/O model is used underneath.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public interface Transport {
+
+    /**
+     * Bind the transport and start accepting connections.
+     *
+     * @param acceptor the acceptor of the new connections
+     * @throws IOException if an I/O error occurs while binding
+     */
+    void start(ConnectionAcceptor acceptor) throws IOException;
+
+    /**
+     * Returns a snapshot of the activity of the thread pool running the handlers of the transport.
+     *
+     * @return the statistics of the thread pool, or null if they are not available for this transport
+     */
+    default ThreadPoolStats threadPoolStats() {
+        return null;
+    }
+}
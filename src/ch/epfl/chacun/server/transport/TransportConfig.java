@@ -0,0 +1,93 @@
+package ch.epfl.chacun.server.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+
+/**
+ * The settings of the transport of a server.
+ *
+ * @param type                The type of the transport.
+ * @param eventLoops          The number of event loops of the selector transport.
+ * @param channelGroup        The type of the channel group of the NIO2 transport.
+ * @param channelGroupThreads The number of threads of a fixed channel group, or the initial number of threads
+ *                            of a cached channel group.
+ * @param acceptors           The number of listening sockets bound to the same port with SO_REUSEPORT,
+ *                            each with its own accept loop.
+ * @param backlog             The maximum number of pending connections of each listening socket,
+ *                            or 0 for the default of the system.
+ * @param tcpNoDelay          Whether TCP_NODELAY is enabled on the accepted connections, disabling Nagle's algorithm.
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public record TransportConfig(TransportType type, int eventLoops, ChannelGroupType channelGroup,
+                              int channelGroupThreads, int acceptors, int backlog, boolean tcpNoDelay) {
+
+    /**
+     * The NIO2 transport on the default channel group, with one event loop or one thread
+     * of the channel group per core if another transport or channel group is chosen instead,
+     * and a single listening socket with the default backlog. Nagle's algorithm is left enabled.
+     */
+    public static final TransportConfig DEFAULT = new TransportConfig(TransportType.NIO2,
+            Runtime.getRuntime().availableProcessors(), ChannelGroupType.DEFAULT,
+            Runtime.getRuntime().availableProcessors(), 1, 0, false);
+
+    /**
+     * Validates the settings.
+     *
+     * @throws NullPointerException     if a type is null
+     * @throws IllegalArgumentException if the number of event loops, threads or acceptors, or the backlog is not valid
+     */
+    public TransportConfig {
+        if (type == null || channelGroup == null)
+            throw new NullPointerException("type");
+        if (eventLoops <= 0)
+            throw new IllegalArgumentException("Invalid number of event loops");
+        if (channelGroupThreads < 0 || channelGroup == ChannelGroupType.FIXED && channelGroupThreads == 0)
+            throw new IllegalArgumentException("Invalid number of threads");
+        if (acceptors <= 0 || backlog < 0)
+            throw new IllegalArgumentException("Invalid listening settings");
+    }
+
+    /**
+     * Create the transport described by these settings.
+     *
+     * @param address the address to bind to
+     * @return the transport, not started yet
+     */
+    public Transport create(InetSocketAddress address) {
+        return switch (type) {
+            case NIO2 -> new Nio2Transport(address, this);
+            case VIRTUAL_THREADS -> new VirtualThreadTransport(address, this);
+            case SELECTOR -> new SelectorTransport(address, this);
+        };
+    }
+
+    /**
+     * Prepare a listening socket before it is bound.
+     * <p>
+     * Several sockets can only be bound to the same port if they all enable SO_REUSEPORT,
+     * the kernel then spreads the incoming connections across them.
+     *
+     * @param listener the listening socket, not bound yet
+     * @throws IOException                   if an I/O error occurs
+     * @throws UnsupportedOperationException if several acceptors are needed but SO_REUSEPORT is not supported
+     */
+    void configureListener(NetworkChannel listener) throws IOException {
+        if (acceptors == 1) return;
+        if (!listener.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT))
+            throw new UnsupportedOperationException("SO_REUSEPORT is not supported, a single acceptor must be used");
+        listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+    }
+
+    /**
+     * Prepare a connection once it has been accepted, before anything is read from it.
+     *
+     * @param connection the accepted connection
+     * @throws IOException if an I/O error occurs
+     */
+    void configureConnection(NetworkChannel connection) throws IOException {
+        if (tcpNoDelay)
+            connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+}
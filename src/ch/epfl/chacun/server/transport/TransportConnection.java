@@ -0,0 +1,57 @@
+package ch.epfl.chacun.server.transport;
+
+import ch.epfl.chacun.server.timer.Scheduler;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A connection accepted by a transport.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public interface TransportConnection {
+
+    /**
+     * Write asynchronously every remaining byte of the given buffers, in order.
+     * <p>
+     * Only one write may be in flight at a time: the next write must not be started
+     * before the handler of the previous one has been called.
+     *
+     * @param buffers the buffers to write
+     * @param handler the handler notified once every byte has been written or the write has failed
+     */
+    void write(ByteBuffer[] buffers, WriteHandler handler);
+
+    /**
+     * Returns the address of the client.
+     *
+     * @return the remote address, or null if it is unknown
+     */
+    SocketAddress remoteAddress();
+
+    /**
+     * Returns the scheduler running its tasks on the thread handling the events of the connection,
+     * so that the timers of the connection stay on that thread.
+     *
+     * @return the scheduler of the connection, or null if the transport has no such thread
+     */
+    default Scheduler scheduler() {
+        return null;
+    }
+
+    /**
+     * Whether the connection is still open.
+     *
+     * @return true if the connection is open, false otherwise
+     */
+    boolean isOpen();
+
+    /**
+     * Close the connection. Any read or write in flight fails.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,24 @@
+package ch.epfl.chacun.server.transport;
+
+/**
+ * The transports a server can run on.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public enum TransportType {
+
+    /**
+     * Asynchronous channels with completion handlers running on the default channel group.
+     */
+    NIO2,
+
+    /**
+     * Blocking sockets, each connection being read by its own virtual thread.
+     */
+    VIRTUAL_THREADS,
+
+    /**
+     * Non-blocking channels multiplexed by one selector event loop per core.
+     */
+    SELECTOR
+}
@@ -0,0 +1,150 @@
+package ch.epfl.chacun.server.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A connection accepted by the virtual thread transport.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class VirtualThreadConnection implements TransportConnection {
+
+    /**
+     * The underlying blocking socket channel.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The timer closing the connection when a read times out.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Whether the connection has been closed because a read has timed out.
+     */
+    private volatile boolean timedOut;
+
+    /**
+     * Create a new connection.
+     *
+     * @param channel the underlying blocking socket channel
+     * @param timer   the timer closing the connection when a read times out
+     */
+    VirtualThreadConnection(SocketChannel channel, ScheduledExecutorService timer) {
+        this.channel = channel;
+        this.timer = timer;
+    }
+
+    /**
+     * Read from the client until the handler stops reading or a read fails.
+     * <p>
+     * Must be called by the virtual thread of the connection.
+     *
+     * @param handler the handler of the bytes read, or null if the connection has been rejected
+     */
+    void read(ConnectionHandler handler) {
+        // A rejected connection has already been closed
+        if (handler == null) return;
+        try {
+            int bytes;
+            do {
+                bytes = read(handler.readBuffer(), handler.readTimeout());
+            } while (handler.readCompleted(bytes));
+        } catch (IOException | RuntimeException e) {
+            // The virtual thread would die silently, leaving the connection open forever
+            handler.readFailed(e);
+        }
+    }
+
+    /**
+     * Read once from the client, blocking the current thread.
+     * <p>
+     * Blocking socket reads cannot time out, the connection is closed by the timer instead.
+     *
+     * @param buffer  the buffer to read into
+     * @param timeout the timeout of the read (in nanoseconds), or 0 if it should never time out
+     * @return the number of bytes read, or -1 if the client has closed the connection
+     * @throws IOException if the read fails or times out
+     */
+    private int read(ByteBuffer buffer, long timeout) throws IOException {
+        if (timeout <= 0)
+            return channel.read(buffer);
+        ScheduledFuture<?> timeoutTask = timer.schedule(this::timeout, timeout, TimeUnit.NANOSECONDS);
+        try {
+            return channel.read(buffer);
+        } catch (AsynchronousCloseException e) {
+            if (timedOut)
+                throw new SocketTimeoutException("Read timed out");
+            throw e;
+        } finally {
+            timeoutTask.cancel(false);
+        }
+    }
+
+    /**
+     * Close the connection because the read in progress has timed out.
+     */
+    private void timeout() {
+        timedOut = true;
+        try {
+            channel.close();
+        } catch (IOException _) {
+            // Ignore
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, WriteHandler handler) {
+        // Writing on another thread keeps the caller from blocking on a slow client
+        Thread.startVirtualThread(() -> {
+            try {
+                while (hasRemaining(buffers)) {
+                    channel.write(buffers);
+                }
+                handler.completed();
+            } catch (IOException e) {
+                handler.failed(e);
+            }
+        });
+    }
+
+    /**
+     * Whether any of the buffers still has bytes to write.
+     *
+     * @param buffers the buffers being written
+     * @return true if some bytes remain, false otherwise
+     */
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public SocketAddress remoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException _) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,124 @@
+package ch.epfl.chacun.server.transport;
+
+import ch.epfl.chacun.server.log.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A transport built on blocking sockets, where each connection is read by its own virtual thread.
+ * <p>
+ * Blocking a virtual thread on a socket only parks it, so the code handling a connection is
+ * straightforward sequential code, while the number of carrier threads stays bounded.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class VirtualThreadTransport implements Transport {
+
+    /**
+     * The log of the transport.
+     */
+    private static final Log LOG = Log.get("transport");
+
+    /**
+     * The factory of the threads reading the connections.
+     */
+    private static final ThreadFactory CONNECTION_THREADS = Thread.ofVirtual().name("websocket-connection-", 0).factory();
+
+    /**
+     * The time the accept loop waits after a failed accept before trying again (in nanoseconds).
+     */
+    private static final long ACCEPT_BACKOFF = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The address to bind to.
+     */
+    private final InetSocketAddress address;
+
+    /**
+     * The settings of the transport.
+     */
+    private final TransportConfig config;
+
+    /**
+     * The timer closing the connections whose read has timed out.
+     */
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+            Thread.ofPlatform().name("websocket-read-timeout").daemon().factory());
+
+    /**
+     * Create a new virtual thread transport.
+     *
+     * @param address the address to bind to
+     * @param config  the settings of the transport
+     */
+    VirtualThreadTransport(InetSocketAddress address, TransportConfig config) {
+        this.address = address;
+        this.config = config;
+        // Most reads complete before their timeout, do not keep the cancelled tasks around
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void start(ConnectionAcceptor acceptor) throws IOException {
+        // Each listening socket has its own accept loop
+        for (int i = 0; i < config.acceptors(); i++) {
+            ServerSocketChannel serverSock = ServerSocketChannel.open();
+            config.configureListener(serverSock);
+            serverSock.bind(address, config.backlog());
+            Thread.ofVirtual().name(STR."websocket-acceptor-\{i}").start(() -> accept(serverSock, acceptor));
+        }
+    }
+
+    /**
+     * Accept the connections until the server socket is closed.
+     * <p>
+     * A failed accept is retried after a short pause: the usual cause, running out of file descriptors,
+     * lasts until some connections are closed, and retrying at once would only spin.
+     *
+     * @param serverSock the server socket
+     * @param acceptor   the acceptor of the new connections
+     */
+    private void accept(ServerSocketChannel serverSock, ConnectionAcceptor acceptor) {
+        while (serverSock.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = serverSock.accept();
+            } catch (IOException e) {
+                if (!serverSock.isOpen()) return;
+                LOG.warn("Failed to accept a connection", "cause", e.getMessage());
+                LockSupport.parkNanos(ACCEPT_BACKOFF);
+                continue;
+            }
+            try {
+                config.configureConnection(channel);
+            } catch (IOException e) {
+                LOG.warn("Failed to configure a connection", "cause", e.getMessage());
+                closeQuietly(channel);
+                continue;
+            }
+            VirtualThreadConnection connection = new VirtualThreadConnection(channel, timer);
+            // The new connection is accepted on its own thread, not to delay the next accept
+            CONNECTION_THREADS.newThread(() -> connection.read(acceptor.accept(connection))).start();
+        }
+    }
+
+    /**
+     * Close a connection that could not be set up, ignoring any error.
+     *
+     * @param channel the channel of the connection
+     */
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException _) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ch.epfl.chacun.server.transport;
+
+/**
+ * Handles the completion of a write to a connection.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public interface WriteHandler {
+
+    /**
+     * Called once every byte has been written.
+     */
+    void completed();
+
+    /**
+     * Called when the write has failed.
+     *
+     * @param exc the cause of the failure
+     */
+    void failed(Throwable exc);
+}
@@ -0,0 +1,42 @@
+package ch.epfl.chacun.server.websocket;
+
+/**
+ * The settings of the admission control applied to the connections of each remote address.
+ *
+ * @param maxConnections The maximum number of connections open at the same time by an address, or 0 for no limit.
+ * @param acceptRate     The number of connections an address may open per second in the long run, or 0 for no limit.
+ * @param acceptBurst    The number of connections an address may open at once before being limited by the accept rate.
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public record AdmissionConfig(int maxConnections, int acceptRate, int acceptBurst) {
+
+    /**
+     * Every connection is admitted.
+     */
+    public static final AdmissionConfig DISABLED = new AdmissionConfig(0, 0, 0);
+
+    /**
+     * An address may keep 32 connections open, and open 10 per second after a burst of 20,
+     * which leaves room for a whole class behind the same NAT.
+     */
+    public static final AdmissionConfig DEFAULT = new AdmissionConfig(32, 10, 20);
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException if a limit is negative, or if the accept rate is limited without any burst
+     */
+    public AdmissionConfig {
+        if (maxConnections < 0 || acceptRate < 0 || acceptBurst < 0 || (acceptRate > 0 && acceptBurst == 0))
+            throw new IllegalArgumentException("Invalid admission settings");
+    }
+
+    /**
+     * Whether any limit is enforced.
+     *
+     * @return true if the connections are limited, false if every connection is admitted
+     */
+    public boolean enabled() {
+        return maxConnections > 0 || acceptRate > 0;
+    }
+}
@@ -1,30 +1,99 @@
 package ch.epfl.chacun.server.websocket;
 
+import ch.epfl.chacun.server.buffer.BufferPool;
+import ch.epfl.chacun.server.log.Log;
+import ch.epfl.chacun.server.metrics.MetricsRegistry;
+import ch.epfl.chacun.server.rfc6455.CloseStatusCode;
+import ch.epfl.chacun.server.rfc6455.MessageAssembler;
+import ch.epfl.chacun.server.rfc6455.OpCode;
 import ch.epfl.chacun.server.rfc6455.PayloadData;
 import ch.epfl.chacun.server.rfc6455.RFC6455;
+import ch.epfl.chacun.server.rfc6455.TextDecoder;
+import ch.epfl.chacun.server.timer.Timeout;
+import ch.epfl.chacun.server.transport.ThreadPoolStats;
+import ch.epfl.chacun.server.transport.Transport;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
 
 /**
  * An asynchronous WebSocket server that listens for incoming connections and messages from clients.
+ * <p>
+ * The connections are accepted and read by the transport selected in the settings of the server.
  *
  * @author Maxence Espagnet (sciper: 372808)
  */
 public abstract class AsyncWebSocketServer<T> extends WebSocketBroadcaster<T> {
 
+    /**
+     * The name of the latency histograms of the stages a message goes through, labelled by stage.
+     */
+    public static final String STAGE_LATENCY = "chacun_stage_latency";
+
+    /**
+     * The log of the connections.
+     */
+    private static final Log LOG = Log.get("websocket.connections");
+
     /**
      * The timeout watcher that keeps track of the last time a client sent a pong message.
      */
     private final TimeoutWatcher<T> timeoutWatcher;
 
     /**
-     * The maximum size of a payload that can be received (in bytes).
+     * The settings of the server.
+     */
+    private final ServerConfig config;
+
+    /**
+     * The pool providing the buffers used to read and encode frames.
+     */
+    private final BufferPool bufferPool = new BufferPool();
+
+    /**
+     * The admission control deciding which new connections are accepted.
+     */
+    private final ConnectionAdmission admission;
+
+    /**
+     * The number of messages dropped for exceeding their rate limit, for each class of message.
+     */
+    private final LongAdder[] droppedMessages;
+
+    /**
+     * The number of compressed messages dropped before being inflated, for exceeding the inflate limit.
+     */
+    private final LongAdder droppedCompressed = new LongAdder();
+
+    /**
+     * The counters, gauges and latency histograms of the server.
+     */
+    private final MetricsRegistry metrics;
+
+    /**
+     * The metrics of the stages a message goes through, looked up once.
+     */
+    private final PipelineMetrics pipelineMetrics;
+
+    /**
+     * The plain HTTP endpoints served to the requests that are not upgrade requests.
+     */
+    private final HttpEndpoints httpEndpoints;
+
+    /**
+     * The number of connections currently open.
+     */
+    private final LongAdder openConnections = new LongAdder();
+
+    /**
+     * The transport accepting and reading the connections.
      */
-    private final int maxBufferSize;
+    private final Transport transport;
 
     /**
      * Create a new asynchronous WebSocket server that listens on the specified address and port.
@@ -36,41 +105,205 @@ public abstract class AsyncWebSocketServer<T> extends WebSocketBroadcaster<T> {
      * @throws IOException if an I/O error occurs
      */
     public AsyncWebSocketServer(String bindAddr, int bindPort, int maxBufferSize, int pingInterval) throws IOException {
-        InetSocketAddress sockAddr = new InetSocketAddress(InetAddress.getByName(bindAddr), bindPort);
-        // Create a socket channel and bind to local bind address
-        AsynchronousServerSocketChannel serverSock = AsynchronousServerSocketChannel.open().bind(sockAddr);
-        // Start to accept the connection from client
-        serverSock.accept(serverSock, new ChannelConnectionHandler<>(this));
+        this(bindAddr, bindPort, maxBufferSize, maxBufferSize, pingInterval);
+    }
+
+    /**
+     * Create a new asynchronous WebSocket server that listens on the specified address and port,
+     * accepting fragmented messages larger than a single frame.
+     *
+     * @param bindAddr       the address to bind to
+     * @param bindPort       the port to bind to
+     * @param maxBufferSize  the maximum size of a payload that can be received (in bytes)
+     * @param maxMessageSize the maximum size of a message reassembled from several fragments (in bytes)
+     * @param pingInterval   the interval in milliseconds at which the client should send a pong message
+     * @throws IOException if an I/O error occurs
+     */
+    public AsyncWebSocketServer(String bindAddr, int bindPort, int maxBufferSize, int maxMessageSize,
+                                int pingInterval) throws IOException {
+        this(ServerConfig.builder(bindAddr, bindPort)
+                .maxBufferSize(maxBufferSize)
+                .maxMessageSize(maxMessageSize)
+                .pingInterval(pingInterval)
+                .build());
+    }
+
+    /**
+     * Create a new asynchronous WebSocket server with the given settings.
+     *
+     * @param config the settings of the server
+     * @throws IOException if an I/O error occurs
+     */
+    public AsyncWebSocketServer(ServerConfig config) throws IOException {
+        this(config, new MetricsRegistry());
+    }
+
+    /**
+     * Create a new asynchronous WebSocket server with the given settings, recording its metrics
+     * into the given registry.
+     * <p>
+     * The subclasses register their own metrics into the registry before passing it,
+     * as the server starts accepting connections before their constructor returns.
+     *
+     * @param config  the settings of the server
+     * @param metrics the registry of the metrics of the server
+     * @throws IOException if an I/O error occurs
+     */
+    protected AsyncWebSocketServer(ServerConfig config, MetricsRegistry metrics) throws IOException {
         // Server settings
-        this.maxBufferSize = maxBufferSize;
-        this.timeoutWatcher = new TimeoutWatcher<>(pingInterval);
-        System.out.println(STR."Server started on \{bindAddr}:\{bindPort}");
+        this.config = config;
+        this.metrics = metrics;
+        this.pipelineMetrics = new PipelineMetrics(metrics);
+        this.httpEndpoints = new HttpEndpoints(metrics);
+        this.timeoutWatcher = new TimeoutWatcher<>(config.pingInterval(), config.slowConsumerTimeout());
+        this.admission = new ConnectionAdmission(config.admission());
+        this.droppedMessages = new LongAdder[config.inboundRateLimits().size()];
+        for (int i = 0; i < droppedMessages.length; i++) {
+            droppedMessages[i] = new LongAdder();
+            metrics.gauge("chacun_messages_dropped_total", droppedMessages[i]::sum, "class", Integer.toString(i));
+        }
+        if (droppedMessages.length > 0)
+            metrics.gauge("chacun_messages_dropped_total", droppedCompressed::sum, "class", "compressed");
+        metrics.gauge("chacun_connections_open", openConnections::sum);
+        metrics.gauge("chacun_connections_rejected_total", admission::rejectedByLimit, "reason", "limit");
+        metrics.gauge("chacun_connections_rejected_total", admission::rejectedByRate, "reason", "rate");
+        metrics.gauge("chacun_buffer_pool_hits_total", bufferPool::hits);
+        metrics.gauge("chacun_buffer_pool_misses_total", bufferPool::misses);
+        InetSocketAddress sockAddr = new InetSocketAddress(InetAddress.getByName(config.bindAddr()), config.bindPort());
+        // Bind the transport and start to accept the connection from client
+        this.transport = config.transport().create(sockAddr);
+        transport.start(new ChannelConnectionHandler<>(this));
+        // The thread pool of the transport, if it has one, only exists once the transport has started
+        if (transport.threadPoolStats() != null) {
+            metrics.gauge("chacun_transport_queue_depth", () -> transport.threadPoolStats().queuedTasks());
+            metrics.gauge("chacun_transport_active_threads", () -> transport.threadPoolStats().activeThreads());
+        }
+        LOG.info("Server started", "addr", config.bindAddr(), "port", config.bindPort());
+    }
+
+    /**
+     * Returns the settings of the server.
+     *
+     * @return the settings of the server
+     */
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the pool providing the buffers used to read and encode frames.
+     *
+     * @return the buffer pool of the server
+     */
+    @Override
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Returns the admission control of the server, which keeps count of the rejected connections.
+     *
+     * @return the admission control of the server
+     */
+    public ConnectionAdmission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Returns the counters, gauges and latency histograms of the server,
+     * to which the subclasses may add their own.
+     *
+     * @return the metrics registry of the server
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    PipelineMetrics getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+
+    /**
+     * Returns the plain HTTP endpoints served on the port of the server.
+     *
+     * @return the HTTP endpoints
+     */
+    HttpEndpoints getHttpEndpoints() {
+        return httpEndpoints;
     }
 
     /**
-     * Start reading asynchronously a message from the client.
+     * Returns the number of messages dropped so far for exceeding the rate limit of their class.
      *
-     * @param ws the socket channel to read messages from
+     * @param messageClass the class of message, an index in the inbound rate limits of the settings
+     * @return the number of dropped messages of the class
      */
-    public void startRead(WebSocketChannel<T> ws) {
-        ByteBuffer buffer = ByteBuffer.allocate(maxBufferSize); // If the data is larger, it will be considered invalid
-        ws.getAsyncChannel().read(buffer, ws, new ChannelReadHandler<>(this, buffer));
+    public long getDroppedMessages(int messageClass) {
+        return droppedMessages[messageClass].sum();
     }
 
     /**
-     * Start to write asynchronously a message to the client.
+     * Returns the number of compressed messages dropped before being inflated,
+     * because their connection sent more of them than all its classes allow together.
      *
-     * @param ws     the socket channel to write messages to
-     * @param buffer the buffer containing the message to write
+     * @return the number of dropped compressed messages
      */
-    public void startWrite(WebSocketChannel<T> ws, ByteBuffer buffer) {
-        buffer.rewind(); // Rewind the buffer to start reading from the beginning
-        ws.getAsyncChannel().write(buffer, ws, new ChannelWriteHandler<>(this));
+    public long getDroppedCompressedMessages() {
+        return droppedCompressed.sum();
+    }
+
+    /**
+     * Returns a snapshot of the activity of the thread pool running the handlers of the transport,
+     * such as its queue depth and its number of active threads.
+     *
+     * @return the statistics of the thread pool, or null if they are not available for the transport
+     */
+    public ThreadPoolStats getThreadPoolStats() {
+        return transport.threadPoolStats();
+    }
+
+    /**
+     * Returns the maximum size of a payload that can be received (in bytes).
+     *
+     * @return the maximum size of a payload that can be received
+     */
+    public int getMaxBufferSize() {
+        return config.maxBufferSize();
+    }
+
+    /**
+     * Returns the maximum size of a message reassembled from several fragments (in bytes).
+     *
+     * @return the maximum size of a reassembled message
+     */
+    public int getMaxMessageSize() {
+        return config.maxMessageSize();
+    }
+
+    /**
+     * Arm the slow consumer timeout of a channel that became congested.
+     *
+     * @param ws the congested channel
+     * @return the slow consumer timeout of the channel
+     */
+    Timeout watchCongestion(WebSocketChannel<T> ws) {
+        return timeoutWatcher.watchCongestion(ws);
+    }
+
+    /**
+     * Make sure a channel evicted as a slow consumer is terminated, even if its close frame is never written.
+     *
+     * @param ws the evicted channel
+     */
+    void watchEviction(WebSocketChannel<T> ws) {
+        timeoutWatcher.watchEviction(ws);
     }
 
     @Override
     protected void onOpen(WebSocketChannel<T> ws) {
-        System.out.println("New connection opened");
+        LOG.info("New connection opened", "conn", ws.getId());
+        openConnections.increment();
         timeoutWatcher.watch(ws);
     }
 
@@ -86,18 +319,141 @@ public abstract class AsyncWebSocketServer<T> extends WebSocketBroadcaster<T> {
 
     @Override
     protected void onClose(WebSocketChannel<T> ws) {
-        System.out.println("Connection closed");
+        LOG.info("Connection closed", "conn", ws.getId());
+        openConnections.decrement();
         timeoutWatcher.unwatch(ws);
     }
 
     @Override
     public void dispatch(PayloadData payload, WebSocketChannel<T> ws) {
+        // Control frames must not be fragmented
+        if (payload.opCode().isControl()
+                && (!payload.isFinal() || payload.length() > RFC6455.MAX_CONTROL_PAYLOAD_LENGTH)) {
+            ws.fail(CloseStatusCode.PROTOCOL_ERROR, "Invalid control frame");
+            return;
+        }
+
+        // RSV1 marks a compressed message, and is only allowed on the first frame of a data message
+        int[] rsv = payload.rsv();
+        boolean compressed = rsv[0] == 1;
+        boolean isFirstDataFrame = payload.opCode() == OpCode.TEXT || payload.opCode() == OpCode.BINARY;
+        if (rsv[1] != 0 || rsv[2] != 0 || (compressed && (ws.getPerMessageDeflate() == null || !isFirstDataFrame))) {
+            ws.fail(CloseStatusCode.PROTOCOL_ERROR, "Invalid reserved bits");
+            return;
+        }
+
+        MessageAssembler assembler = ws.getAssembler();
         switch (payload.opCode()) {
-            case BINARY -> onBinary(ws, RFC6455.decodeFrame(payload));
-            case TEXT -> onMessage(ws, RFC6455.decodeTextFrame(payload));
+            case BINARY, TEXT -> {
+                // A new message cannot start before the fragmented one is complete
+                if (assembler.isAssembling())
+                    ws.fail(CloseStatusCode.PROTOCOL_ERROR, "Expected a continuation frame");
+                else if (payload.isFinal())
+                    dispatchMessage(ws, payload.opCode(), payload.data(), compressed);
+                else {
+                    assembler.start(payload.opCode(), compressed);
+                    appendFragment(ws, payload);
+                }
+            }
+            case CONTINUATION -> {
+                if (!assembler.isAssembling())
+                    ws.fail(CloseStatusCode.PROTOCOL_ERROR, "Unexpected continuation frame");
+                else if (appendFragment(ws, payload) && payload.isFinal()) {
+                    try {
+                        dispatchMessage(ws, assembler.opCode(), assembler.finish(), assembler.isCompressed());
+                    } finally {
+                        assembler.release();
+                    }
+                }
+            }
+            // Control frames are handled immediately, even in the middle of a fragmented message
             case PING -> onPing(ws);
             case PONG -> onPong(ws);
             case CLOSE -> ws.terminate();
         }
     }
+
+    /**
+     * Append the data of a fragment to the message being reassembled for the given channel.
+     *
+     * @param ws      the channel the fragment was received from
+     * @param payload the fragment
+     * @return true if the fragment was appended, false if the connection has been failed
+     */
+    private boolean appendFragment(WebSocketChannel<T> ws, PayloadData payload) {
+        if (!ws.getAssembler().append(payload.data())) {
+            ws.fail(CloseStatusCode.MESSAGE_TOO_BIG, "Message too big");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sort a data message into one of the classes limited by the inbound rate limits of the settings.
+     * <p>
+     * Called for each complete message before it is decoded, so it should only peek at a few bytes.
+     * By default, every message is in the first class if any rate limit is set.
+     *
+     * @param opCode  the opcode of the message
+     * @param message the unmasked and decompressed data of the message, which must not be modified
+     * @return the class of the message, an index in the inbound rate limits, or -1 if the message is not limited
+     */
+    protected int classifyMessage(OpCode opCode, ByteBuffer message) {
+        return droppedMessages.length > 0 ? 0 : -1;
+    }
+
+    /**
+     * Fire the event corresponding to a complete data message.
+     * <p>
+     * Messages over the rate limit of their class are dropped before being decoded.
+     * A compressed message can only be classified once inflated, so it must first fit in the combined limit
+     * of all the classes, which bounds the work a flood of compressed messages can cause.
+     * Text messages are decoded as strict UTF-8, without copying the data.
+     *
+     * @param ws         the channel the message was received from
+     * @param opCode     the opcode of the message
+     * @param message    the unmasked data of the message, only valid during the call
+     * @param compressed whether the message has been compressed by the permessage-deflate extension
+     */
+    private void dispatchMessage(WebSocketChannel<T> ws, OpCode opCode, ByteBuffer message, boolean compressed) {
+        if (compressed) {
+            if (!ws.tryInflate()) {
+                droppedCompressed.increment();
+                return;
+            }
+            byte[] decompressed;
+            try {
+                decompressed = ws.getPerMessageDeflate().decompress(message, getMaxMessageSize());
+            } catch (DataFormatException e) {
+                ws.fail(CloseStatusCode.INVALID_FRAME_PAYLOAD_DATA, "Invalid compressed data");
+                return;
+            }
+            if (decompressed == null) {
+                // The compressors are only released once the channel is terminated, which is then left as is
+                if (!ws.isClosing())
+                    ws.fail(CloseStatusCode.MESSAGE_TOO_BIG, "Message too big");
+                return;
+            }
+            message = ByteBuffer.wrap(decompressed);
+        }
+        int messageClass = classifyMessage(opCode, message);
+        if (messageClass >= 0 && !ws.tryReceive(messageClass)) {
+            droppedMessages[messageClass].increment();
+            return;
+        }
+        if (opCode == OpCode.TEXT) {
+            CharSequence text;
+            try {
+                text = TextDecoder.decode(message);
+            } catch (CharacterCodingException e) {
+                ws.fail(CloseStatusCode.INVALID_FRAME_PAYLOAD_DATA, "Invalid UTF-8 text");
+                return;
+            }
+            onMessage(ws, text);
+        } else {
+            byte[] data = new byte[message.remaining()];
+            message.get(message.position(), data);
+            onBinary(ws, data);
+        }
+    }
 }
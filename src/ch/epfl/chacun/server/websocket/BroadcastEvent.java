@@ -0,0 +1,48 @@
+package ch.epfl.chacun.server.websocket;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A Flight Recorder event emitted when a message has been broadcast to the subscribers of an identifier.
+ * <p>
+ * A broadcast to a game costs at most one encoding per protocol, unless its subscribers compress the message,
+ * each with its own compressor. Broadcasts taking more than half a millisecond point at such compressions
+ * or at large games.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+@Name("ch.epfl.chacun.Broadcast")
+@Label("Broadcast")
+@Description("A message has been queued, as text or binary depending on their subprotocol, "
+        + "to every channel subscribed to a broadcast channel")
+@Category({"ChaCuN", "WebSocket"})
+@Threshold("500 us")
+@StackTrace(false)
+final class BroadcastEvent extends Event {
+
+    @Label("Broadcast Channel")
+    String id;
+
+    @Label("Subscribers")
+    int subscribers;
+
+    @Label("Skipped")
+    @Description("The congested subscribers the droppable message has not been sent to")
+    int skipped;
+
+    @Label("Compressed")
+    @Description("The subscribers the message has been compressed for")
+    int compressed;
+
+    @Label("Message Size")
+    @Description("The size of the text form of the message")
+    @DataAmount
+    int size;
+}
@@ -1,16 +1,21 @@
 package ch.epfl.chacun.server.websocket;
 
-import java.nio.channels.AsynchronousServerSocketChannel;
-import java.nio.channels.AsynchronousSocketChannel;
-import java.nio.channels.CompletionHandler;
+import ch.epfl.chacun.server.transport.ConnectionAcceptor;
+import ch.epfl.chacun.server.transport.ConnectionHandler;
+import ch.epfl.chacun.server.transport.TransportConnection;
+
+import java.io.IOException;
 
 /**
  * Handles the connection of a new client to the server.
+ * <p>
+ * The admission control of the server is consulted first, so that a rejected connection
+ * is closed before any buffer or channel state is allocated for it.
  *
  * @param <T> The type of the context attached to the WebSocket channel.
  * @author Maxence Espagnet (sciper: 372808)
  */
-public class ChannelConnectionHandler<T> implements CompletionHandler<AsynchronousSocketChannel, AsynchronousServerSocketChannel> {
+public class ChannelConnectionHandler<T> implements ConnectionAcceptor {
 
     private final AsyncWebSocketServer<T> server;
 
@@ -24,19 +29,20 @@ public class ChannelConnectionHandler<T> implements CompletionHandler<Asynchrono
     }
 
     @Override
-    public void completed(AsynchronousSocketChannel channel, AsynchronousServerSocketChannel serverChannel) {
-        // A connection is accepted, start to accept next connection
-        serverChannel.accept(serverChannel, this);
+    public ConnectionHandler accept(TransportConnection connection) {
+        ConnectionAdmission.Address address = server.getAdmission().admit(connection.remoteAddress());
+        if (address == null) {
+            // Too many connections from the same address, drop it without answering
+            try {
+                connection.close();
+            } catch (IOException _) {
+                // Ignore
+            }
+            return null;
+        }
         // Evolve the connection to a WebSocket channel
-        WebSocketChannel<T> ws = new WebSocketChannel<>(channel, server);
-        // Notify the server that a new connection is opened
-        server.onOpen(ws);
-        // Start to read message from the client
-        server.startRead(ws);
-    }
-
-    @Override
-    public void failed(Throwable exc, AsynchronousServerSocketChannel channel) {
-        System.out.println("Failed to accept a connection");
+        WebSocketChannel<T> ws = new WebSocketChannel<>(connection, server, address);
+        // The transport starts to read messages from the client, the server is only notified once upgraded
+        return new ChannelReadHandler<>(server, ws);
     }
 }
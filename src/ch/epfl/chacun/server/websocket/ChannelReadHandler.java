@@ -1,78 +1,222 @@
 package ch.epfl.chacun.server.websocket;
 
+import ch.epfl.chacun.server.log.Log;
+import ch.epfl.chacun.server.rfc6455.CloseStatusCode;
+import ch.epfl.chacun.server.rfc6455.FrameDecoder;
+import ch.epfl.chacun.server.rfc6455.HandshakeParser;
+import ch.epfl.chacun.server.rfc6455.HandshakeRequest;
 import ch.epfl.chacun.server.rfc6455.OpCode;
 import ch.epfl.chacun.server.rfc6455.PayloadData;
+import ch.epfl.chacun.server.rfc6455.PerMessageDeflate;
 import ch.epfl.chacun.server.rfc6455.RFC6455;
+import ch.epfl.chacun.server.transport.ConnectionHandler;
 
 import java.nio.ByteBuffer;
-import java.nio.channels.CompletionHandler;
 
 /**
- * Handles the asynchronous reading of a message from a WebSocket channel.
+ * Handles the asynchronous reading of messages from a WebSocket channel.
+ * <p>
+ * The transport starts the next read as long as the handler asks for it. The bytes of incomplete frames
+ * are kept by the frame decoder of the channel, and the state of the opening handshake by its handshake parser.
  *
  * @param <T> The type of the context attached to the WebSocket channel.
  * @author Maxence Espagnet (sciper: 372808)
  */
-public class ChannelReadHandler<T> implements CompletionHandler<Integer, WebSocketChannel<T>> {
+public class ChannelReadHandler<T> implements ConnectionHandler {
+
+    /**
+     * The log of the connections.
+     */
+    private static final Log LOG = Log.get("websocket.connections");
 
     private final AsyncWebSocketServer<T> server;
-    private final ByteBuffer payload;
+    private final WebSocketChannel<T> channel;
 
     /**
-     * Create a new read handler for the server.
+     * Create a new read handler for a channel of the server.
      *
      * @param server  the server to handle reads for
-     * @param payload the buffer to store the incoming message
+     * @param channel the channel to handle reads for
      */
-    public ChannelReadHandler(AsyncWebSocketServer<T> server, ByteBuffer payload) {
+    public ChannelReadHandler(AsyncWebSocketServer<T> server, WebSocketChannel<T> channel) {
         this.server = server;
-        this.payload = payload;
+        this.channel = channel;
     }
 
+    /**
+     * Returns the buffer of the frame decoder of the channel, which already contains
+     * the bytes of any incomplete frame received previously.
+     *
+     * @return the buffer to read into
+     */
     @Override
-    public void completed(Integer result, WebSocketChannel<T> channel) {
+    public ByteBuffer readBuffer() {
+        return channel.getDecoder().readBuffer();
+    }
+
+    /**
+     * Returns the time left to complete the opening handshake, reads never time out once it is completed.
+     *
+     * @return the timeout of the next read (in nanoseconds), or 0 if the read should never time out
+     */
+    @Override
+    public long readTimeout() {
+        // A timeout of zero would mean no timeout at all
+        return channel.getHandshake() == null ? 0 : Math.max(channel.handshakeTimeLeft(), 1);
+    }
+
+    /**
+     * Handle the bytes read from the client.
+     * <p>
+     * If writes are batched, the frames sent to any channel while handling them are flushed together at the end.
+     *
+     * @param result the number of bytes read, or -1 if the client has disconnected
+     * @return true if the next read should be started, false otherwise
+     */
+    @Override
+    public boolean readCompleted(int result) {
+        long start = System.nanoTime();
+        WriteBatch batch = server.getConfig().batchWrites() ? WriteBatch.open() : null;
+        try {
+            return handleRead(result);
+        } finally {
+            if (batch != null)
+                batch.close();
+            server.getPipelineMetrics().read.recordSince(start);
+        }
+    }
+
+    /**
+     * Parse the opening handshake or decode the frames read from the client, and dispatch them.
+     *
+     * @param result the number of bytes read, or -1 if the client has disconnected
+     * @return true if the next read should be started, false otherwise
+     */
+    private boolean handleRead(int result) {
         // If the client has disconnected
         if (result == -1) {
-            failed(new IllegalArgumentException("Client disconnected"), channel);
-            return;
+            readFailed(new IllegalArgumentException("Client disconnected"));
+            return false;
         }
 
-        String content = new String(payload.array());
-        // Check for any incoming HTTP upgrade request
-        if (RFC6455.isUpgradeRequest(content)) {
-            // Send the upgrade response
+        PipelineMetrics metrics = server.getPipelineMetrics();
+        metrics.bytesReceived.add(result);
+        FrameDecoder decoder = channel.getDecoder();
+        // Parse the opening handshake until the connection is upgraded
+        HandshakeParser handshake = channel.getHandshake();
+        if (handshake != null) {
+            ByteBuffer bytes = decoder.remainingBytes();
+            int start = bytes.position();
+            HandshakeRequest request;
             try {
-                String upgradeResponse = RFC6455.upgradeToWebsocket(content);
-                server.startWrite(channel, ByteBuffer.wrap(upgradeResponse.getBytes()));
+                request = handshake.parse(bytes);
             } catch (IllegalArgumentException e) {
-                failed(e, channel);
+                reject();
+                return false;
             }
-            // Start to read next message again
-            server.startRead(channel);
-            return;
+            decoder.consume(bytes.position() - start);
+            if (request == null) {
+                // Wait for the rest of the request
+                decoder.compact();
+                return true;
+            }
+            // Plain HTTP requests are answered and the connection closed, without ever becoming a WebSocket
+            if (!RFC6455.isUpgradeRequest(request)) {
+                ByteBuffer response = server.getHttpEndpoints().respond(request);
+                if (response == null) {
+                    reject();
+                } else {
+                    channel.releaseReadBuffers();
+                    channel.reject(response);
+                }
+                return false;
+            }
+            if (!upgrade(request)) {
+                reject();
+                return false;
+            }
+            // Any byte following the request is decoded as frames
         }
 
-        // Decode the payload
-        PayloadData payloadData = RFC6455.parsePayload(payload);
-        if (payloadData == null) {
+        try {
+            // Fire the event corresponding to each complete frame
+            PayloadData payloadData;
+            long start = System.nanoTime();
+            while ((payloadData = decoder.nextFrame()) != null) {
+                long decoded = System.nanoTime();
+                metrics.decode.record(decoded - start);
+                metrics.framesReceived.increment();
+                server.dispatch(payloadData, channel);
+                start = System.nanoTime();
+                metrics.dispatch.record(start - decoded);
+                // Stop reading once the connection is closed
+                if (payloadData.opCode() == OpCode.CLOSE || channel.isClosing()) {
+                    channel.releaseReadBuffers();
+                    return false;
+                }
+            }
+        } catch (FrameDecoder.FrameTooLargeException e) {
+            // The client is told its frame is too large, as for a message reassembled from too many fragments
+            channel.releaseReadBuffers();
+            channel.fail(CloseStatusCode.MESSAGE_TOO_BIG, "Frame too big");
+            return false;
+        } catch (IllegalArgumentException e) {
             // The payload is invalid
-            failed(new IllegalArgumentException("Invalid RFC6455 payload"), channel);
-            return;
+            readFailed(e);
+            return false;
         }
 
-        // Fire the event corresponding to the payload
-        server.dispatch(payloadData, channel);
-        // If the payload is not a close message
-        if (payloadData.opCode() != OpCode.CLOSE) {
-            // Start to read next message again
-            server.startRead(channel);
+        // Keep the bytes of the incomplete frame and start to read next message again
+        decoder.compact();
+        return true;
+    }
+
+    /**
+     * Send the response upgrading the connection to the WebSocket protocol, and switch the channel to frame mode.
+     * <p>
+     * The extensions and the subprotocol of the connection are negotiated beforehand.
+     *
+     * @param request the upgrade request of the client
+     * @return true if the connection has been upgraded, false if the request is invalid
+     */
+    private boolean upgrade(HandshakeRequest request) {
+        try {
+            // Negotiate the compression of the messages
+            PerMessageDeflate deflate = PerMessageDeflate.negotiate(
+                    request.header("Sec-WebSocket-Extensions"),
+                    server.getConfig().perMessageDeflate());
+            String subprotocol = RFC6455.negotiateSubprotocol(
+                    request.header("Sec-WebSocket-Protocol"),
+                    server.getConfig().subprotocols());
+            ByteBuffer upgradeResponse = RFC6455.upgradeToWebsocket(request,
+                    deflate != null ? deflate.responseHeader() : null, subprotocol);
+            channel.setPerMessageDeflate(deflate);
+            channel.setSubprotocol(subprotocol);
+            channel.completeHandshake();
+            channel.sendBytes(upgradeResponse);
+            // Notify the server that a new WebSocket connection is opened
+            server.onOpen(channel);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
     }
 
+    /**
+     * Reject a connection whose opening handshake is invalid, and which does not target
+     * one of the HTTP endpoints of the server, with an HTTP error response.
+     */
+    private void reject() {
+        LOG.info("Invalid handshake request... closing channel", "conn", channel.getId());
+        channel.releaseReadBuffers();
+        channel.reject(RFC6455.BAD_REQUEST);
+    }
+
     @Override
-    public void failed(Throwable exc, WebSocketChannel<T> ws) {
-        System.out.println("Failed to read message from client... closing channel");
-        System.out.println(exc.getMessage());
-        ws.terminate(); // Close the channel on the server side
+    public void readFailed(Throwable exc) {
+        LOG.info("Failed to read message from client... closing channel",
+                "conn", channel.getId(), "cause", exc.getMessage());
+        channel.releaseReadBuffers();
+        channel.terminate(); // Close the channel on the server side
     }
 }
@@ -1,35 +1,62 @@
 package ch.epfl.chacun.server.websocket;
 
-import java.nio.channels.CompletionHandler;
+import ch.epfl.chacun.server.log.Log;
+import ch.epfl.chacun.server.log.LogLevel;
+import ch.epfl.chacun.server.transport.WriteHandler;
 
 /**
- * Handles the asynchronous writing of a message to a WebSocket channel.
+ * Handles the completion of the gathering write of queued frames to a WebSocket channel.
  *
  * @param <T> The type of the context attached to the WebSocket channel.
  * @author Maxence Espagnet (sciper: 372808)
  */
-public class ChannelWriteHandler<T> implements CompletionHandler<Integer, WebSocketChannel<T>> {
+public class ChannelWriteHandler<T> implements WriteHandler {
 
-    private final AsyncWebSocketServer<T> server;
+    /**
+     * The log of the frames, written for each frame at the trace level.
+     */
+    private static final Log FRAMES = Log.get("websocket.frames");
+
+    private final WebSocketChannel<T> ws;
+    private final OutboundFrame[] frames;
+
+    /**
+     * The time (as given by {@link System#nanoTime()}) the write has been started.
+     */
+    private final long startNanos = System.nanoTime();
 
     /**
-     * Create a new write handler for the server.
+     * Create a new write handler for the channel.
      *
-     * @param server the server to handle writes for
+     * @param ws     the channel to handle writes for
+     * @param frames the frames being written
+     */
+    ChannelWriteHandler(WebSocketChannel<T> ws, OutboundFrame[] frames) {
+        this.ws = ws;
+        this.frames = frames;
+    }
+
+    /**
+     * Release the pooled buffers of the written frames.
      */
-    public ChannelWriteHandler(AsyncWebSocketServer<T> server) {
-        this.server = server;
+    private void releaseFrames() {
+        for (OutboundFrame frame : frames) {
+            frame.release();
+        }
     }
 
     @Override
-    public void completed(Integer result, WebSocketChannel<T> ws) {
-        // Finish to write message to client, nothing to do
-        System.out.println("Message written to client");
+    public void completed() {
+        if (FRAMES.isEnabled(LogLevel.TRACE))
+            FRAMES.trace("Frames written to client", "conn", ws.getId(), "frames", frames.length);
+        ws.onWriteCompleted(frames, startNanos);
     }
 
     @Override
-    public void failed(Throwable exc, WebSocketChannel<T> ws) {
-        System.out.println("Failed to write message to client... closing channel");
+    public void failed(Throwable exc) {
+        FRAMES.info("Failed to write message to client... closing channel",
+                "conn", ws.getId(), "cause", exc.getMessage());
+        releaseFrames();
         ws.terminate(); // Close the channel on the server side
     }
 }
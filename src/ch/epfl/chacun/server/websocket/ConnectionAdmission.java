@@ -0,0 +1,213 @@
+package ch.epfl.chacun.server.websocket;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a new connection is admitted, before anything is allocated for it.
+ * <p>
+ * Each remote address may only keep a limited number of connections open, and open new ones at a limited rate.
+ * The rate is enforced by a {@link TokenBucket} per address, from which each admitted connection takes a token.
+ * <p>
+ * The state of an address is a single small object, updated under its own lock so that only the connections
+ * from the same address contend. It is forgotten once the address has no connection left and its bucket is full,
+ * since it then holds nothing more than a new state would.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public final class ConnectionAdmission {
+
+    /**
+     * The interval at which the forgettable addresses are looked for (in nanoseconds).
+     */
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * The settings of the admission control.
+     */
+    private final AdmissionConfig config;
+
+    /**
+     * The limit on the rate at which an address opens connections, or null if there is none.
+     */
+    private final RateLimit acceptLimit;
+
+    /**
+     * The state of the addresses having open connections or a bucket that is not full.
+     */
+    private final ConcurrentMap<InetAddress, Address> addresses = new ConcurrentHashMap<>();
+
+    /**
+     * The time (as given by {@link System#nanoTime()}) of the next sweep of the forgettable addresses.
+     */
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL);
+
+    /**
+     * The number of connections rejected because their address had too many connections open.
+     */
+    private final LongAdder rejectedByLimit = new LongAdder();
+
+    /**
+     * The number of connections rejected because their address opened connections too quickly.
+     */
+    private final LongAdder rejectedByRate = new LongAdder();
+
+    /**
+     * Create a new admission control.
+     *
+     * @param config the settings of the admission control
+     */
+    public ConnectionAdmission(AdmissionConfig config) {
+        this.config = config;
+        this.acceptLimit = config.acceptRate() > 0 ? new RateLimit(config.acceptRate(), config.acceptBurst()) : null;
+    }
+
+    /**
+     * Decide whether a new connection from the given address is admitted.
+     * <p>
+     * An admitted connection must be given back with {@link #release(Address)} once it is closed.
+     *
+     * @param remoteAddress the address of the client, or null if it is unknown
+     * @return the state of the address the connection is counted for, or null if the connection is rejected
+     */
+    public Address admit(SocketAddress remoteAddress) {
+        if (!config.enabled() || !(remoteAddress instanceof InetSocketAddress inet) || inet.getAddress() == null)
+            return Address.UNTRACKED;
+
+        long now = System.nanoTime();
+        sweepIfDue(now);
+        InetAddress key = inet.getAddress();
+        while (true) {
+            Address address = addresses.computeIfAbsent(key,
+                    k -> new Address(k, acceptLimit != null ? new TokenBucket(acceptLimit) : null));
+            synchronized (address) {
+                // The state has been forgotten in the meantime, use a new one
+                if (address.forgotten) continue;
+                if (config.maxConnections() > 0 && address.connections >= config.maxConnections()) {
+                    rejectedByLimit.increment();
+                    return null;
+                }
+                if (address.bucket != null && !address.bucket.tryTake(now)) {
+                    rejectedByRate.increment();
+                    return null;
+                }
+                address.connections++;
+                return address;
+            }
+        }
+    }
+
+    /**
+     * Give back a connection admitted previously, once it is closed.
+     *
+     * @param address the state of the address returned when the connection was admitted
+     */
+    public void release(Address address) {
+        if (address == Address.UNTRACKED) return;
+        synchronized (address) {
+            address.connections--;
+        }
+        forgetIfIdle(address, System.nanoTime());
+    }
+
+    /**
+     * Returns the number of connections rejected because their address had too many connections open.
+     *
+     * @return the number of connections rejected by the connection limit
+     */
+    public long rejectedByLimit() {
+        return rejectedByLimit.sum();
+    }
+
+    /**
+     * Returns the number of connections rejected because their address opened connections too quickly.
+     *
+     * @return the number of connections rejected by the accept rate
+     */
+    public long rejectedByRate() {
+        return rejectedByRate.sum();
+    }
+
+    /**
+     * Returns the number of addresses whose state is currently kept.
+     *
+     * @return the number of tracked addresses
+     */
+    public int trackedAddresses() {
+        return addresses.size();
+    }
+
+    /**
+     * Forget the idle addresses if the last sweep is old enough. Only one thread sweeps at a time.
+     *
+     * @param now the current time (as given by {@link System#nanoTime()})
+     */
+    private void sweepIfDue(long now) {
+        long due = nextSweep.get();
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL)) return;
+        for (Address address : addresses.values()) {
+            forgetIfIdle(address, now);
+        }
+    }
+
+    /**
+     * Forget the state of an address if it has no connection left and its bucket is full.
+     *
+     * @param address the state of the address
+     * @param now     the current time (as given by {@link System#nanoTime()})
+     */
+    private void forgetIfIdle(Address address, long now) {
+        synchronized (address) {
+            if (address.connections > 0 || (address.bucket != null && !address.bucket.isFull(now))) return;
+            address.forgotten = true;
+        }
+        addresses.remove(address.key, address);
+    }
+
+    /**
+     * The admission state of a remote address.
+     */
+    public static final class Address {
+
+        /**
+         * The state of the connections that are not tracked, either because the admission control is disabled
+         * or because their address is unknown.
+         */
+        static final Address UNTRACKED = new Address(null, null);
+
+        private final InetAddress key;
+
+        /**
+         * The number of connections open by the address.
+         */
+        private int connections;
+
+        /**
+         * The token bucket limiting the rate at which the address opens connections, or null if there is no limit.
+         * It is only used while holding the lock of the state.
+         */
+        private final TokenBucket bucket;
+
+        /**
+         * Whether the state has been removed from the map, in which case it must no longer be updated.
+         */
+        private boolean forgotten;
+
+        /**
+         * Create the state of an address that has no connection open.
+         *
+         * @param key    the remote address
+         * @param bucket the token bucket limiting the rate of its connections, or null if there is no limit
+         */
+        private Address(InetAddress key, TokenBucket bucket) {
+            this.key = key;
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ch.epfl.chacun.server.websocket;
+
+import ch.epfl.chacun.server.metrics.MetricsRegistry;
+import ch.epfl.chacun.server.metrics.PrometheusFormat;
+import ch.epfl.chacun.server.rfc6455.HandshakeRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The plain HTTP endpoints served on the port of the WebSocket server, to requests that are not upgrade requests.
+ * <p>
+ * {@code GET /healthz} is a liveness probe answered with a constant response, and {@code GET /metrics}
+ * renders the metrics of the server in the format of Prometheus. The connection is closed once the response
+ * has been written, it never becomes a WebSocket connection.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class HttpEndpoints {
+
+    /**
+     * The response to the liveness probe.
+     */
+    private static final ByteBuffer HEALTHY = ByteBuffer.wrap(
+            "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nConnection: close\r\nContent-Length: 3\r\n\r\nok\n"
+                    .getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+
+    /**
+     * The response to a request of an endpoint with another method than GET.
+     */
+    private static final ByteBuffer METHOD_NOT_ALLOWED = ByteBuffer.wrap(
+            "HTTP/1.1 405 Method Not Allowed\r\nAllow: GET\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+
+    /**
+     * The initial capacity of the rendered metrics, before the size of a first rendering is known.
+     */
+    private static final int INITIAL_METRICS_SIZE = 8 * 1024;
+
+    private final MetricsRegistry metrics;
+
+    /**
+     * The size of the last rendering of the metrics, used to size the next one so that it never grows.
+     */
+    private final AtomicInteger metricsSize = new AtomicInteger(INITIAL_METRICS_SIZE);
+
+    /**
+     * Create the endpoints of a server.
+     *
+     * @param metrics the metrics of the server
+     */
+    HttpEndpoints(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the response to an HTTP request, if it targets one of the endpoints.
+     *
+     * @param request the request, which is not an upgrade request
+     * @return the response, or null if the request does not target an endpoint
+     */
+    ByteBuffer respond(HandshakeRequest request) {
+        String path = request.target();
+        int query = path.indexOf('?');
+        if (query >= 0)
+            path = path.substring(0, query);
+        return switch (path) {
+            case "/healthz" -> request.method().equals("GET") ? HEALTHY : METHOD_NOT_ALLOWED;
+            case "/metrics" -> request.method().equals("GET") ? renderMetrics() : METHOD_NOT_ALLOWED;
+            default -> null;
+        };
+    }
+
+    /**
+     * Render the metrics of the server into a response.
+     * <p>
+     * The body is rendered into a builder sized after the previous rendering,
+     * then encoded once into a buffer of the exact size of the response.
+     *
+     * @return the response
+     */
+    private ByteBuffer renderMetrics() {
+        StringBuilder body = new StringBuilder(metricsSize.get());
+        PrometheusFormat.render(metrics, body);
+        // Leave some room for the metrics created in the meantime
+        metricsSize.set(body.length() + body.length() / 8);
+        byte[] content = body.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] header = (STR."HTTP/1.1 200 OK\r\nContent-Type: \{PrometheusFormat.CONTENT_TYPE}\r\n"
+                + STR."Connection: close\r\nContent-Length: \{content.length}\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(header.length + content.length).put(header).put(content).flip();
+    }
+}
@@ -0,0 +1,47 @@
+package ch.epfl.chacun.server.websocket;
+
+import ch.epfl.chacun.server.buffer.PooledBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame waiting in the write queue of a WebSocket channel.
+ *
+ * @param buffer The view of the frame content being written.
+ * @param owner  The pooled buffer backing the view, or null if the view is not pooled.
+ * @param length The number of bytes of the frame, accounted in the write queue until it is written.
+ * @param last   Whether nothing may be sent after the frame: a close frame, or the HTTP response rejecting
+ *               the connection.
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+record OutboundFrame(ByteBuffer buffer, PooledBuffer owner, int length, boolean last) {
+
+    /**
+     * Create a frame waiting to write the remaining content of the view.
+     *
+     * @param buffer The view of the frame content being written.
+     * @param owner  The pooled buffer backing the view, or null if the view is not pooled.
+     */
+    OutboundFrame(ByteBuffer buffer, PooledBuffer owner) {
+        this(buffer, owner, false);
+    }
+
+    /**
+     * Create a frame waiting to write the remaining content of the view, which may be the last one.
+     *
+     * @param buffer The view of the frame content being written.
+     * @param owner  The pooled buffer backing the view, or null if the view is not pooled.
+     * @param last   Whether nothing may be sent after the frame.
+     */
+    OutboundFrame(ByteBuffer buffer, PooledBuffer owner, boolean last) {
+        this(buffer, owner, buffer.remaining(), last);
+    }
+
+    /**
+     * Release the pooled buffer backing the frame, if any.
+     */
+    void release() {
+        if (owner != null)
+            owner.release();
+    }
+}
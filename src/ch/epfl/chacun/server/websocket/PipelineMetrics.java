@@ -0,0 +1,65 @@
+package ch.epfl.chacun.server.websocket;
+
+import ch.epfl.chacun.server.metrics.LatencyHistogram;
+import ch.epfl.chacun.server.metrics.MetricsRegistry;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics recorded by the WebSocket layer for each stage a message goes through,
+ * looked up once in the registry of the server.
+ * <p>
+ * A message is read, decoded into frames, dispatched to the handlers of the server,
+ * and the frames sent in response are encoded, then written.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class PipelineMetrics {
+
+    /**
+     * The time spent handling the bytes of a read, from its completion to the next read.
+     */
+    final LatencyHistogram read;
+
+    /**
+     * The time spent decoding a frame from the bytes read.
+     */
+    final LatencyHistogram decode;
+
+    /**
+     * The time spent dispatching a frame, including the handling of the message it completes.
+     */
+    final LatencyHistogram dispatch;
+
+    /**
+     * The time spent compressing and encoding an outgoing frame.
+     */
+    final LatencyHistogram encode;
+
+    /**
+     * The time a gathering write takes to complete, from its start.
+     */
+    final LatencyHistogram write;
+
+    final LongAdder framesReceived;
+    final LongAdder bytesReceived;
+    final LongAdder framesSent;
+    final LongAdder bytesSent;
+
+    /**
+     * Look the metrics of the pipeline up in the given registry.
+     *
+     * @param registry the registry of the server
+     */
+    PipelineMetrics(MetricsRegistry registry) {
+        this.read = registry.histogram(AsyncWebSocketServer.STAGE_LATENCY, "stage", "read");
+        this.decode = registry.histogram(AsyncWebSocketServer.STAGE_LATENCY, "stage", "decode");
+        this.dispatch = registry.histogram(AsyncWebSocketServer.STAGE_LATENCY, "stage", "dispatch");
+        this.encode = registry.histogram(AsyncWebSocketServer.STAGE_LATENCY, "stage", "encode");
+        this.write = registry.histogram(AsyncWebSocketServer.STAGE_LATENCY, "stage", "write");
+        this.framesReceived = registry.counter("chacun_frames_received_total");
+        this.bytesReceived = registry.counter("chacun_bytes_received_total");
+        this.framesSent = registry.counter("chacun_frames_sent_total");
+        this.bytesSent = registry.counter("chacun_bytes_sent_total");
+    }
+}
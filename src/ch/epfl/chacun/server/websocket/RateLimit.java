@@ -0,0 +1,21 @@
+package ch.epfl.chacun.server.websocket;
+
+/**
+ * A limit on the rate of some events, such as the messages of a given class received from a client.
+ *
+ * @param rate  The number of events allowed per second in the long run.
+ * @param burst The number of events allowed at once before being limited by the rate.
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public record RateLimit(int rate, int burst) {
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException if the rate or the burst is not positive
+     */
+    public RateLimit {
+        if (rate <= 0 || burst <= 0)
+            throw new IllegalArgumentException("Invalid rate limit");
+    }
+}
@@ -0,0 +1,334 @@
+package ch.epfl.chacun.server.websocket;
+
+import ch.epfl.chacun.server.rfc6455.PerMessageDeflateConfig;
+import ch.epfl.chacun.server.transport.ChannelGroupType;
+import ch.epfl.chacun.server.transport.TransportConfig;
+import ch.epfl.chacun.server.transport.TransportType;
+
+import java.util.List;
+
+/**
+ * The settings of an asynchronous WebSocket server.
+ *
+ * @param bindAddr            The address to bind to.
+ * @param bindPort            The port to bind to.
+ * @param maxBufferSize       The maximum size of a frame payload that can be received (in bytes).
+ * @param maxMessageSize      The maximum size of a message reassembled from several fragments (in bytes).
+ * @param pingInterval        The interval in milliseconds at which the client should send a pong message.
+ * @param handshakeTimeout    The time in milliseconds a client has to complete the opening handshake.
+ * @param writeHighWatermark  The number of bytes queued toward a client above which droppable messages are dropped.
+ * @param writeLowWatermark   The number of bytes queued toward a client below which it is no longer congested.
+ * @param slowConsumerTimeout The time in milliseconds a client may stay congested before being disconnected.
+ * @param batchWrites         Whether the frames sent while handling an inbound message are flushed together.
+ * @param admission           The limits on the connections opened by each remote address.
+ * @param inboundRateLimits   The limits on the rate of the messages received from each client, one per class of message.
+ * @param perMessageDeflate   The settings of the permessage-deflate extension.
+ * @param subprotocols        The subprotocols the server speaks besides the bare protocol, by order of preference.
+ * @param transport           The settings of the transport the server runs on.
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+public record ServerConfig(
+        String bindAddr,
+        int bindPort,
+        int maxBufferSize,
+        int maxMessageSize,
+        int pingInterval,
+        int handshakeTimeout,
+        int writeHighWatermark,
+        int writeLowWatermark,
+        int slowConsumerTimeout,
+        boolean batchWrites,
+        AdmissionConfig admission,
+        List<RateLimit> inboundRateLimits,
+        PerMessageDeflateConfig perMessageDeflate,
+        List<String> subprotocols,
+        TransportConfig transport
+) {
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException if a size, the ping interval or a timeout is not positive,
+     *                                  if a message can be smaller than a frame,
+     *                                  or if the low watermark is above the high watermark
+     */
+    public ServerConfig {
+        inboundRateLimits = List.copyOf(inboundRateLimits);
+        subprotocols = List.copyOf(subprotocols);
+        if (maxBufferSize <= 0 || maxMessageSize < maxBufferSize || pingInterval <= 0
+                || handshakeTimeout <= 0 || writeLowWatermark <= 0 || writeHighWatermark < writeLowWatermark
+                || slowConsumerTimeout <= 0)
+            throw new IllegalArgumentException("Invalid server settings");
+    }
+
+    /**
+     * Create a builder for the settings of a server listening on the given address and port.
+     *
+     * @param bindAddr the address to bind to
+     * @param bindPort the port to bind to
+     * @return the builder, initialized with the default settings
+     */
+    public static Builder builder(String bindAddr, int bindPort) {
+        return new Builder(bindAddr, bindPort);
+    }
+
+    /**
+     * A builder for ServerConfig.
+     */
+    public static final class Builder {
+
+        private final String bindAddr;
+        private final int bindPort;
+        private int maxBufferSize = 512;
+        private int maxMessageSize = 512;
+        private int pingInterval = 60 * 1000;
+        private int handshakeTimeout = 10 * 1000;
+        private int writeHighWatermark = 256 * 1024;
+        private int writeLowWatermark = 64 * 1024;
+        private int slowConsumerTimeout = 30 * 1000;
+        private boolean batchWrites = false;
+        private AdmissionConfig admission = AdmissionConfig.DISABLED;
+        private List<RateLimit> inboundRateLimits = List.of();
+        private PerMessageDeflateConfig perMessageDeflate = PerMessageDeflateConfig.DISABLED;
+        private List<String> subprotocols = List.of();
+        private TransportType transport = TransportConfig.DEFAULT.type();
+        private int eventLoops = TransportConfig.DEFAULT.eventLoops();
+        private ChannelGroupType channelGroup = TransportConfig.DEFAULT.channelGroup();
+        private int channelGroupThreads = TransportConfig.DEFAULT.channelGroupThreads();
+        private int acceptors = TransportConfig.DEFAULT.acceptors();
+        private int backlog = TransportConfig.DEFAULT.backlog();
+        private boolean tcpNoDelay = TransportConfig.DEFAULT.tcpNoDelay();
+
+        /**
+         * Create a new builder with the default settings.
+         *
+         * @param bindAddr the address to bind to
+         * @param bindPort the port to bind to
+         */
+        private Builder(String bindAddr, int bindPort) {
+            this.bindAddr = bindAddr;
+            this.bindPort = bindPort;
+        }
+
+        /**
+         * Set the maximum size of a frame payload that can be received.
+         *
+         * @param maxBufferSize the maximum size of a frame payload (in bytes)
+         * @return this builder
+         */
+        public Builder maxBufferSize(int maxBufferSize) {
+            this.maxBufferSize = maxBufferSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of a message reassembled from several fragments.
+         *
+         * @param maxMessageSize the maximum size of a reassembled message (in bytes)
+         * @return this builder
+         */
+        public Builder maxMessageSize(int maxMessageSize) {
+            this.maxMessageSize = maxMessageSize;
+            return this;
+        }
+
+        /**
+         * Set the interval at which the client should send a pong message.
+         *
+         * @param pingInterval the ping interval (in milliseconds)
+         * @return this builder
+         */
+        public Builder pingInterval(int pingInterval) {
+            this.pingInterval = pingInterval;
+            return this;
+        }
+
+        /**
+         * Set the time a client has to complete the opening handshake once connected.
+         *
+         * @param handshakeTimeout the handshake timeout (in milliseconds)
+         * @return this builder
+         */
+        public Builder handshakeTimeout(int handshakeTimeout) {
+            this.handshakeTimeout = handshakeTimeout;
+            return this;
+        }
+
+        /**
+         * Set the watermarks of the bytes queued toward a client.
+         * <p>
+         * Above the high watermark, the client is congested: droppable messages are no longer sent to it,
+         * until the queue drains below the low watermark.
+         *
+         * @param low  the low watermark (in bytes)
+         * @param high the high watermark (in bytes)
+         * @return this builder
+         */
+        public Builder writeWatermarks(int low, int high) {
+            this.writeLowWatermark = low;
+            this.writeHighWatermark = high;
+            return this;
+        }
+
+        /**
+         * Set the time a client may stay congested before its connection is closed.
+         *
+         * @param slowConsumerTimeout the slow consumer timeout (in milliseconds)
+         * @return this builder
+         */
+        public Builder slowConsumerTimeout(int slowConsumerTimeout) {
+            this.slowConsumerTimeout = slowConsumerTimeout;
+            return this;
+        }
+
+        /**
+         * Set whether the frames sent to any client while handling an inbound message are collected
+         * and flushed once the message has been handled, with a single gathering write per client.
+         *
+         * @param batchWrites whether writes are batched, false by default
+         * @return this builder
+         */
+        public Builder batchWrites(boolean batchWrites) {
+            this.batchWrites = batchWrites;
+            return this;
+        }
+
+        /**
+         * Set the limits on the connections opened by each remote address,
+         * enforced before anything is allocated for a new connection.
+         *
+         * @param admission the settings of the admission control, disabled by default
+         * @return this builder
+         */
+        public Builder admission(AdmissionConfig admission) {
+            this.admission = admission;
+            return this;
+        }
+
+        /**
+         * Set the limits on the rate of the messages received from each client.
+         * <p>
+         * The server sorts the messages into classes, each limited by the limit at the same index.
+         * A message over its limit is dropped before being decoded.
+         *
+         * @param inboundRateLimits the limit of each class of message, none by default
+         * @return this builder
+         * @see AsyncWebSocketServer#classifyMessage
+         */
+        public Builder inboundRateLimits(RateLimit... inboundRateLimits) {
+            this.inboundRateLimits = List.of(inboundRateLimits);
+            return this;
+        }
+
+        /**
+         * Set the settings of the permessage-deflate extension.
+         *
+         * @param perMessageDeflate the settings of the extension
+         * @return this builder
+         */
+        public Builder perMessageDeflate(PerMessageDeflateConfig perMessageDeflate) {
+            this.perMessageDeflate = perMessageDeflate;
+            return this;
+        }
+
+        /**
+         * Set the subprotocols the server speaks besides the bare protocol.
+         * <p>
+         * The first of them offered by a client is selected during its opening handshake,
+         * a client offering none of them keeps the bare protocol.
+         *
+         * @param subprotocols the supported subprotocols by order of preference, none by default
+         * @return this builder
+         * @see WebSocketChannel#getSubprotocol()
+         */
+        public Builder subprotocols(String... subprotocols) {
+            this.subprotocols = List.of(subprotocols);
+            return this;
+        }
+
+        /**
+         * Set the transport the server runs on.
+         *
+         * @param transport the transport
+         * @return this builder
+         */
+        public Builder transport(TransportType transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Set the number of event loops of the selector transport.
+         *
+         * @param eventLoops the number of event loops, one per core by default
+         * @return this builder
+         */
+        public Builder eventLoops(int eventLoops) {
+            this.eventLoops = eventLoops;
+            return this;
+        }
+
+        /**
+         * Set the thread pool of the channel group of the NIO2 transport.
+         *
+         * @param channelGroup the type of the channel group
+         * @param threads      the number of threads of a fixed group, or the initial number of threads of a cached group
+         * @return this builder
+         */
+        public Builder channelGroup(ChannelGroupType channelGroup, int threads) {
+            this.channelGroup = channelGroup;
+            this.channelGroupThreads = threads;
+            return this;
+        }
+
+        /**
+         * Set the number of listening sockets bound to the same port with SO_REUSEPORT, each with its own accept loop.
+         * <p>
+         * Several acceptors are only supported on systems providing SO_REUSEPORT.
+         *
+         * @param acceptors the number of acceptors, 1 by default
+         * @return this builder
+         */
+        public Builder acceptors(int acceptors) {
+            this.acceptors = acceptors;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of pending connections of each listening socket.
+         *
+         * @param backlog the accept backlog, or 0 for the default of the system
+         * @return this builder
+         */
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * Set whether TCP_NODELAY is enabled on the accepted connections.
+         * <p>
+         * Disabling Nagle's algorithm sends small frames right away, it is best combined with batched writes.
+         *
+         * @param tcpNoDelay whether TCP_NODELAY is enabled, false by default
+         * @return this builder
+         */
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * Build the server settings.
+         *
+         * @return the server settings
+         * @throws IllegalArgumentException if the settings are invalid
+         */
+        public ServerConfig build() {
+            return new ServerConfig(bindAddr, bindPort, maxBufferSize, maxMessageSize, pingInterval,
+                    handshakeTimeout, writeHighWatermark, writeLowWatermark, slowConsumerTimeout, batchWrites,
+                    admission, inboundRateLimits, perMessageDeflate, subprotocols, new TransportConfig(transport, eventLoops,
+                    channelGroup, channelGroupThreads, acceptors, backlog, tcpNoDelay));
+        }
+    }
+}
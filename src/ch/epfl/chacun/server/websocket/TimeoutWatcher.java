@@ -1,13 +1,23 @@
 package ch.epfl.chacun.server.websocket;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import ch.epfl.chacun.server.log.Log;
+import ch.epfl.chacun.server.timer.HashedWheelTimer;
+import ch.epfl.chacun.server.timer.Scheduler;
+import ch.epfl.chacun.server.timer.Timeout;
+
 import java.util.concurrent.TimeUnit;
 
 /**
  * A class that watches WebSocket channels for timeouts.
+ * <p>
+ * Each channel has its own keep-alive timeout on a timing wheel: when it expires, a ping is sent to the client,
+ * unless the ping sent previously has not been answered, in which case the client has timed out.
+ * Only the channels whose timeout expires are visited, never the whole set of channels.
+ * <p>
+ * The same wheel keeps track of the congested channels, which are evicted if they do not drain in time.
+ * <p>
+ * The channels whose transport runs each connection on an event loop are timed by their loop instead,
+ * so that their pings and evictions run on the thread handling their events.
  *
  * @param <T> The type of the context attached to the WebSocket channel.
  * @author Maxence Espagnet (sciper: 372808)
@@ -15,31 +25,46 @@ import java.util.concurrent.TimeUnit;
 public class TimeoutWatcher<T> {
 
     /**
-     * The map of WebSocket channels to their last pong date.
+     * The log of the connections.
+     */
+    private static final Log LOG = Log.get("websocket.connections");
+
+    /**
+     * The duration of a tick of the wheel (in milliseconds), which is the precision of the timeouts.
+     */
+    private static final int TICK_DURATION = 100;
+
+    /**
+     * The number of buckets of the wheel, spanning a bit more than 100 seconds.
+     */
+    private static final int WHEEL_SIZE = 1024;
+
+    /**
+     * The timer shared by the channels whose connection has no scheduler of its own.
+     */
+    private final HashedWheelTimer timer =
+            new HashedWheelTimer("websocket-timeout-watcher", TICK_DURATION, TimeUnit.MILLISECONDS, WHEEL_SIZE);
+
+    /**
+     * The interval at which a ping is sent to each client (in milliseconds).
+     */
+    private final int timeoutAfterMs;
+
+    /**
+     * The time a client may stay congested before being evicted (in milliseconds).
      */
-    private final Map<WebSocketChannel<T>, Date> wsDelays = new HashMap<>();
+    private final int slowConsumerTimeoutMs;
 
     /**
-     * Create a new timeout watcher that checks for timeouts every {@code timeoutAfterMs} milliseconds.
+     * Create a new timeout watcher that pings every client every {@code timeoutAfterMs} milliseconds,
+     * and closes the connection of the clients that did not answer the previous ping.
      *
-     * @param timeoutAfterMs the timeout in milliseconds
+     * @param timeoutAfterMs        the timeout in milliseconds
+     * @param slowConsumerTimeoutMs the time in milliseconds a client may stay congested
      */
-    public TimeoutWatcher(int timeoutAfterMs) {
-        try (ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1)) {
-            executor.scheduleAtFixedRate(() -> {
-                Date lastPing = new Date(new Date().getTime() - timeoutAfterMs);
-                wsDelays.forEach((ws, lastPong) -> {
-                    // If the last pong was received more than PING_INTERVAL ms after the last ping,
-                    // close the connection from the server side as the client has timed out.
-                    if (lastPing.getTime() - lastPong.getTime() > timeoutAfterMs) {
-                        System.out.println("A client has timed out.");
-                        ws.terminate();
-                    }
-                    // Otherwise, send a ping
-                    else ws.sendPing();
-                });
-            }, 0, timeoutAfterMs, TimeUnit.MILLISECONDS);
-        }
+    public TimeoutWatcher(int timeoutAfterMs, int slowConsumerTimeoutMs) {
+        this.timeoutAfterMs = timeoutAfterMs;
+        this.slowConsumerTimeoutMs = slowConsumerTimeoutMs;
     }
 
     /**
@@ -48,7 +73,8 @@ public class TimeoutWatcher<T> {
      * @param ws the WebSocket channel to watch
      */
     public void watch(WebSocketChannel<T> ws) {
-        wsDelays.put(ws, new Date());
+        ws.setAwaitingPong(false);
+        schedule(ws);
     }
 
     /**
@@ -57,7 +83,9 @@ public class TimeoutWatcher<T> {
      * @param ws the WebSocket channel to stop watching
      */
     public void unwatch(WebSocketChannel<T> ws) {
-        wsDelays.remove(ws);
+        Timeout keepAlive = ws.getKeepAlive();
+        if (keepAlive != null)
+            keepAlive.cancel();
     }
 
     /**
@@ -66,6 +94,65 @@ public class TimeoutWatcher<T> {
      * @param ws the WebSocket channel that sent the pong
      */
     public void registerPong(WebSocketChannel<T> ws) {
-        wsDelays.put(ws, new Date());
+        ws.setAwaitingPong(false);
+    }
+
+    /**
+     * Watch a congested WebSocket channel, which is evicted unless it drains before the slow consumer timeout.
+     *
+     * @param ws the congested WebSocket channel
+     * @return the slow consumer timeout of the channel
+     */
+    public Timeout watchCongestion(WebSocketChannel<T> ws) {
+        return schedulerOf(ws).schedule(ws::onSlowConsumerTimeout, slowConsumerTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Terminate an evicted WebSocket channel if its close frame has not been written before the slow consumer timeout.
+     *
+     * @param ws the evicted WebSocket channel
+     */
+    public void watchEviction(WebSocketChannel<T> ws) {
+        schedulerOf(ws).schedule(ws::terminate, slowConsumerTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedule the next keep-alive timeout of a channel.
+     *
+     * @param ws the WebSocket channel
+     */
+    private void schedule(WebSocketChannel<T> ws) {
+        ws.setKeepAlive(schedulerOf(ws).schedule(() -> keepAlive(ws), timeoutAfterMs, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Returns the scheduler running the timeouts of a channel.
+     *
+     * @param ws the WebSocket channel
+     * @return the scheduler of the connection of the channel, or the shared timer if it has none
+     */
+    private Scheduler schedulerOf(WebSocketChannel<T> ws) {
+        Scheduler scheduler = ws.getScheduler();
+        return scheduler != null ? scheduler : timer;
+    }
+
+    /**
+     * Called when the keep-alive timeout of a channel expires.
+     *
+     * @param ws the WebSocket channel
+     */
+    private void keepAlive(WebSocketChannel<T> ws) {
+        if (ws.isClosing()) return;
+        // If the client has not answered the last ping, close the connection
+        // from the server side as the client has timed out.
+        if (ws.isAwaitingPong()) {
+            LOG.info("A client has timed out", "conn", ws.getId());
+            ws.terminate();
+            return;
+        }
+        // Otherwise, send a ping
+        ws.setAwaitingPong(true);
+        ws.sendPing();
+        schedule(ws);
     }
-}
\ No newline at end of file
+}
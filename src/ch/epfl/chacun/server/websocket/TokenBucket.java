@@ -0,0 +1,65 @@
+package ch.epfl.chacun.server.websocket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket enforcing a rate limit, stored as the single timestamp at which the bucket is full again.
+ * <p>
+ * Taking a token pushes the timestamp one interval further, and no token is left once the timestamp
+ * is more than a burst ahead of the current time. Nothing is allocated and no clock is polled in the background.
+ * <p>
+ * A bucket is not thread-safe: it is either used by the reads of a single connection, which never overlap,
+ * or guarded by the lock of its owner, such as the admission state of a remote address.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class TokenBucket {
+
+    /**
+     * The time between two tokens (in nanoseconds).
+     */
+    private final long interval;
+
+    /**
+     * How far ahead of the current time the bucket may be full again while still having a token (in nanoseconds).
+     */
+    private final long tolerance;
+
+    /**
+     * The time (as given by {@link System#nanoTime()}) at which the bucket is full again.
+     */
+    private long fullAt = System.nanoTime();
+
+    /**
+     * Create a new full bucket.
+     *
+     * @param limit the rate limit enforced by the bucket
+     */
+    TokenBucket(RateLimit limit) {
+        this.interval = TimeUnit.SECONDS.toNanos(1) / limit.rate();
+        this.tolerance = interval * (limit.burst() - 1);
+    }
+
+    /**
+     * Take a token from the bucket, if one is left.
+     *
+     * @param now the current time (as given by {@link System#nanoTime()})
+     * @return true if a token has been taken, false if the bucket is empty
+     */
+    boolean tryTake(long now) {
+        long full = Math.max(fullAt, now);
+        if (full - now > tolerance) return false;
+        fullAt = full + interval;
+        return true;
+    }
+
+    /**
+     * Whether every token of the bucket is available again.
+     *
+     * @param now the current time (as given by {@link System#nanoTime()})
+     * @return true if the bucket is full, false otherwise
+     */
+    boolean isFull(long now) {
+        return fullAt - now <= 0;
+    }
+}
@@ -1,13 +1,22 @@
 package ch.epfl.chacun.server.websocket;
 
+import ch.epfl.chacun.server.buffer.BufferPool;
+import ch.epfl.chacun.server.buffer.PooledBuffer;
+import ch.epfl.chacun.server.rfc6455.OpCode;
+import ch.epfl.chacun.server.rfc6455.RFC6455;
+
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 /**
  * A class to allow broadcasting messages to WebSocket channels subscribed to a specific identifier.
+ * <p>
+ * The subscribers of each identifier are kept in an immutable array, which is replaced by a new array
+ * with a compare-and-set whenever a channel subscribes or unsubscribes. A broadcast reads the array
+ * once and iterates over it without any lock, unaffected by the players joining or leaving meanwhile.
  *
  * @param <T> The type of the context attached to the WebSocket channel.
  * @author Maxence Espagnet (sciper: 372808)
@@ -15,19 +24,34 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public abstract class WebSocketBroadcaster<T> extends WebSocketEventListener<T> {
 
     /**
-     * The map of WebSocket channels subscribed to an identifier.
+     * The immutable arrays of WebSocket channels subscribed to an identifier, which are never empty.
+     * <p>
+     * Arrays are compared by identity, so replacing or removing an array only succeeds
+     * if no other thread has replaced it in the meantime.
      */
-    private final Map<String, List<WebSocketChannel<T>>> channels = new HashMap<>();
+    private final ConcurrentMap<String, WebSocketChannel<?>[]> channels = new ConcurrentHashMap<>();
 
     /**
      * Subscribe a WebSocket channel to a broadcast channel.
+     * <p>
+     * Subscribing a channel that is already subscribed has no effect.
      *
      * @param id      the identifier of the broadcast channel to subscribe to
      * @param channel the WebSocket channel to subscribe
      */
     void subscribeTo(String id, WebSocketChannel<T> channel) {
-        // Use CopyOnWriteArrayList to prevent a broadcast from throwing if a player joins or leaves the game
-        channels.computeIfAbsent(id, _ -> new CopyOnWriteArrayList<>()).add(channel);
+        while (true) {
+            WebSocketChannel<?>[] subscribers = channels.get(id);
+            if (subscribers == null) {
+                if (channels.putIfAbsent(id, new WebSocketChannel<?>[]{channel}) == null) return;
+            } else {
+                if (indexOf(subscribers, channel) >= 0) return;
+                WebSocketChannel<?>[] updated = Arrays.copyOf(subscribers, subscribers.length + 1);
+                updated[subscribers.length] = channel;
+                if (channels.replace(id, subscribers, updated)) return;
+            }
+            // Another channel subscribed or unsubscribed in the meantime, try again
+        }
     }
 
     /**
@@ -37,28 +61,171 @@ public abstract class WebSocketBroadcaster<T> extends WebSocketEventListener<T>
      * @param channel the WebSocket channel to unsubscribe
      */
     void unsubscribeFrom(String id, WebSocketChannel<T> channel) {
-        List<WebSocketChannel<T>> channelList = channels.get(id);
-        if (channelList != null) {
-            channelList.remove(channel);
+        while (true) {
+            WebSocketChannel<?>[] subscribers = channels.get(id);
+            if (subscribers == null) return;
+            int index = indexOf(subscribers, channel);
+            if (index < 0) return;
             // Erase the broadcast channel if no more WebSocket channels are subscribed
-            if (channelList.isEmpty()) {
-                channels.remove(id);
+            if (subscribers.length == 1) {
+                if (channels.remove(id, subscribers)) return;
+            } else {
+                WebSocketChannel<?>[] updated = new WebSocketChannel<?>[subscribers.length - 1];
+                System.arraycopy(subscribers, 0, updated, 0, index);
+                System.arraycopy(subscribers, index + 1, updated, index, updated.length - index);
+                if (channels.replace(id, subscribers, updated)) return;
+            }
+            // Another channel subscribed or unsubscribed in the meantime, try again
+        }
+    }
+
+    /**
+     * Returns the position of a WebSocket channel in an array of subscribers.
+     *
+     * @param subscribers the subscribers of a broadcast channel
+     * @param channel     the WebSocket channel to look for
+     * @return the index of the channel, or -1 if it is not subscribed
+     */
+    private static int indexOf(WebSocketChannel<?>[] subscribers, WebSocketChannel<?> channel) {
+        for (int i = 0; i < subscribers.length; i++) {
+            if (subscribers[i].equals(channel)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Broadcast a text message to all WebSocket channels subscribed to an identifier.
+     * <p>
+     * The uncompressed frame is encoded only once, whatever the number of subscribers.
+     * Only the subscribers that negotiated the permessage-deflate extension compress the message
+     * on their own, and only if it is large enough.
+     *
+     * @param id      the identifier of the broadcast channel
+     * @param message the text message to broadcast
+     */
+    void broadcastTo(String id, String message) {
+        broadcastTo(id, message, false);
+    }
+
+    /**
+     * Broadcast a text message to all WebSocket channels subscribed to an identifier,
+     * skipping the congested channels if the message is droppable.
+     *
+     * @param id        the identifier of the broadcast channel
+     * @param message   the text message to broadcast
+     * @param droppable whether the message can be dropped for the channels that do not keep up
+     */
+    void broadcastTo(String id, String message, boolean droppable) {
+        broadcastTo(id, message, null, null, droppable);
+    }
+
+    /**
+     * Broadcast a message to all WebSocket channels subscribed to an identifier, as a binary message
+     * to the channels speaking the given subprotocol and as a text message to the others.
+     * <p>
+     * The binary message is only built once a subscriber needs it,
+     * and each uncompressed frame is encoded at most once, and only if a subscriber needs it.
+     *
+     * @param id            the identifier of the broadcast channel
+     * @param message       the text message to broadcast
+     * @param subprotocol   the subprotocol of the channels receiving the binary message, or null if none
+     * @param binaryMessage the builder of the binary message, or null if every channel receives the text message
+     * @param droppable     whether the message can be dropped for the channels that do not keep up
+     */
+    void broadcastTo(String id, String message, String subprotocol, Supplier<byte[]> binaryMessage,
+                     boolean droppable) {
+        WebSocketChannel<?>[] subscribers = channels.get(id);
+        if (subscribers == null) return;
+
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        byte[] data = message.getBytes();
+        byte[] binaryData = null;
+        PooledBuffer textFrame = null;
+        PooledBuffer binaryFrame = null;
+        int skipped = 0;
+        int compressed = 0;
+        for (WebSocketChannel<?> channel : subscribers) {
+            if (droppable && channel.isCongested()) {
+                skipped++;
+                continue;
             }
+            boolean binary = binaryMessage != null && subprotocol.equals(channel.getSubprotocol());
+            if (binary && binaryData == null)
+                binaryData = binaryMessage.get();
+            OpCode opCode = binary ? OpCode.BINARY : OpCode.TEXT;
+            byte[] payload = binary ? binaryData : data;
+            if (channel.compresses(payload.length)) {
+                compressed++;
+                channel.sendData(opCode, payload);
+            } else if (binary) {
+                if (binaryFrame == null)
+                    binaryFrame = encodeFrame(opCode, payload);
+                channel.sendFrame(binaryFrame);
+            } else {
+                if (textFrame == null)
+                    textFrame = encodeFrame(opCode, payload);
+                channel.sendFrame(textFrame);
+            }
+        }
+        if (textFrame != null)
+            textFrame.release();
+        if (binaryFrame != null)
+            binaryFrame.release();
+        if (event.shouldCommit()) {
+            event.id = id;
+            event.subscribers = subscribers.length;
+            event.skipped = skipped;
+            event.compressed = compressed;
+            event.size = data.length;
+            event.commit();
         }
     }
 
     /**
-     * Broadcast a byte buffer content to all WebSocket channels subscribed to an identifier.
+     * Encode an uncompressed frame shared by the subscribers of a broadcast.
      *
-     * @param id     the identifier of the broadcast channel
-     * @param buffer the byte buffer to broadcast
+     * @param opCode the opcode of the message
+     * @param data   the data of the message
+     * @return the pooled frame, which must be released once sent to every subscriber
      */
-    void broadcastTo(String id, ByteBuffer buffer) {
-        if (channels.containsKey(id)) {
-            List<WebSocketChannel<T>> channelList = channels.get(id);
-            for (WebSocketChannel<T> channel : channelList) {
-                channel.sendBytes(buffer);
+    private PooledBuffer encodeFrame(OpCode opCode, byte[] data) {
+        long start = System.nanoTime();
+        PooledBuffer frame = RFC6455.encodeFrame(opCode, data, getBufferPool());
+        getPipelineMetrics().encode.recordSince(start);
+        return frame;
+    }
+
+    /**
+     * Broadcast an already encoded frame to all WebSocket channels subscribed to an identifier.
+     * <p>
+     * The frame is shared by all the subscribers: each of them writes from its own
+     * {@link ByteBuffer#duplicate()} view, so the content is never copied.
+     *
+     * @param id    the identifier of the broadcast channel
+     * @param frame the encoded frame to broadcast
+     */
+    void broadcastFrame(String id, ByteBuffer frame) {
+        WebSocketChannel<?>[] subscribers = channels.get(id);
+        if (subscribers != null) {
+            ByteBuffer immutableFrame = frame.asReadOnlyBuffer();
+            for (WebSocketChannel<?> channel : subscribers) {
+                channel.sendBytes(immutableFrame);
             }
         }
     }
+
+    /**
+     * Returns the pool providing the buffers used to encode frames.
+     *
+     * @return the buffer pool
+     */
+    public abstract BufferPool getBufferPool();
+
+    /**
+     * Returns the metrics of the stages a message goes through.
+     *
+     * @return the pipeline metrics
+     */
+    abstract PipelineMetrics getPipelineMetrics();
 }
@@ -1,11 +1,30 @@
 package ch.epfl.chacun.server.websocket;
 
+import ch.epfl.chacun.server.buffer.PooledBuffer;
+import ch.epfl.chacun.server.log.Log;
 import ch.epfl.chacun.server.rfc6455.CloseStatusCode;
+import ch.epfl.chacun.server.rfc6455.FrameDecoder;
+import ch.epfl.chacun.server.rfc6455.HandshakeParser;
+import ch.epfl.chacun.server.rfc6455.MessageAssembler;
+import ch.epfl.chacun.server.rfc6455.OpCode;
+import ch.epfl.chacun.server.rfc6455.PerMessageDeflate;
 import ch.epfl.chacun.server.rfc6455.RFC6455;
+import ch.epfl.chacun.server.timer.Scheduler;
+import ch.epfl.chacun.server.timer.Timeout;
+import ch.epfl.chacun.server.transport.TransportConnection;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * Represents a WebSocket channel between the server and a client.
@@ -16,9 +35,34 @@ import java.nio.channels.AsynchronousSocketChannel;
 public class WebSocketChannel<T> {
 
     /**
-     * The underlying AsynchronousSocketChannel.
+     * The log of the connections.
      */
-    private final AsynchronousSocketChannel channel;
+    private static final Log LOG = Log.get("websocket.connections");
+
+    /**
+     * The maximum number of queued buffers flushed together in a single gathering write.
+     */
+    private static final int MAX_GATHERED_BUFFERS = 16;
+
+    /**
+     * The multiple of the high watermark above which a channel is evicted without waiting for its slow consumer timeout.
+     */
+    private static final int MAX_QUEUED_FACTOR = 4;
+
+    /**
+     * The id given to the next channel.
+     */
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    /**
+     * The id of the channel, identifying its connection in the logs.
+     */
+    private final long id = NEXT_ID.incrementAndGet();
+
+    /**
+     * The underlying connection of the transport.
+     */
+    private final TransportConnection connection;
 
     /**
      * The server managing the WebSocket channel.
@@ -31,14 +75,180 @@ public class WebSocketChannel<T> {
     private T context;
 
     /**
-     * Create a new WebSocket channel with the given AsynchronousSocketChannel and server.
+     * The decoder of the frames received from the client.
+     */
+    private final FrameDecoder decoder;
+
+    /**
+     * The assembler of the fragmented messages received from the client.
+     */
+    private final MessageAssembler assembler;
+
+    /**
+     * The parser of the opening handshake, or null once the connection has been upgraded.
+     */
+    private HandshakeParser handshake = new HandshakeParser();
+
+    /**
+     * Whether the connection has been upgraded to the WebSocket protocol, and the server notified of its opening.
+     */
+    private volatile boolean upgraded;
+
+    /**
+     * The time (as given by {@link System#nanoTime()}) by which the opening handshake must be completed.
+     */
+    private final long handshakeDeadline;
+
+    /**
+     * The permessage-deflate extension negotiated during the handshake, or null if none.
+     */
+    private volatile PerMessageDeflate perMessageDeflate;
+
+    /**
+     * The subprotocol selected during the handshake, or null if none.
+     */
+    private volatile String subprotocol;
+
+    /**
+     * The keep-alive timeout of the channel, or null if the channel is not watched.
+     */
+    private volatile Timeout keepAlive;
+
+    /**
+     * Whether a ping has been sent to the client and no pong has been received since.
+     */
+    private volatile boolean awaitingPong;
+
+    /**
+     * Whether the server has failed the connection and is waiting for the close frame to be written.
+     */
+    private volatile boolean closing;
+
+    /**
+     * The frames waiting to be written to the client.
+     */
+    private final Queue<OutboundFrame> writeQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether a close frame, or the HTTP response rejecting the connection, has been queued.
+     * <p>
+     * No data frame is queued after it, since nothing may be sent once the connection is being closed.
+     */
+    private volatile boolean lastQueued;
+
+    /**
+     * Whether the last frame has been taken from the queue to be written, in which case any frame
+     * that slipped into the queue behind it is dropped. Only accessed while holding the write lock.
+     */
+    private boolean lastFlushed;
+
+    /**
+     * Whether a write is currently in flight on the underlying channel.
+     * <p>
+     * A transport connection only allows one pending write at a time.
+     */
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+
+    /**
+     * The number of bytes queued toward the client, including the ones of the write in flight.
+     */
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    /**
+     * The slow consumer timeout armed when the channel became congested, or null if it is not congested.
+     */
+    private final AtomicReference<Timeout> congestion = new AtomicReference<>();
+
+    /**
+     * Whether the channel has been evicted as a slow consumer, in which case nothing more is queued.
+     */
+    private volatile boolean evicted;
+
+    /**
+     * Whether the channel has been terminated, so that the server is notified of its closing only once.
+     * <p>
+     * The channel can be terminated concurrently by the read, write and timer threads.
+     */
+    private final AtomicBoolean terminated = new AtomicBoolean(false);
+
+    /**
+     * The admission state of the address of the client, given back once when the channel is terminated.
+     */
+    private final AtomicReference<ConnectionAdmission.Address> admission;
+
+    /**
+     * The token buckets limiting the rate of the messages received from the client, one per class of message.
+     */
+    private final TokenBucket[] inboundBuckets;
+
+    /**
+     * The token bucket limiting the rate of the compressed messages received from the client before they are
+     * inflated, at the combined rate and burst of all the classes, or null if the messages are not limited.
+     */
+    private final TokenBucket inflateBucket;
+
+    /**
+     * The number of queued bytes above which the channel is congested.
+     */
+    private final int highWatermark;
+
+    /**
+     * The number of queued bytes below which the channel is no longer congested.
+     */
+    private final int lowWatermark;
+
+    /**
+     * Create a new WebSocket channel with the given transport connection and server.
      *
-     * @param channel The AsynchronousSocketChannel.
-     * @param server  The server managing the WebSocket channel.
+     * @param connection The connection of the transport.
+     * @param server     The server managing the WebSocket channel.
+     * @param admission  The admission state of the address the connection has been counted for.
      */
-    public WebSocketChannel(AsynchronousSocketChannel channel, AsyncWebSocketServer<T> server) {
-        this.channel = channel;
+    public WebSocketChannel(TransportConnection connection, AsyncWebSocketServer<T> server,
+                            ConnectionAdmission.Address admission) {
+        this.connection = connection;
         this.server = server;
+        this.admission = new AtomicReference<>(admission);
+        this.decoder = new FrameDecoder(server.getBufferPool(), server.getMaxBufferSize());
+        this.assembler = new MessageAssembler(server.getBufferPool(), server.getMaxMessageSize());
+        this.handshakeDeadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(server.getConfig().handshakeTimeout());
+        this.highWatermark = server.getConfig().writeHighWatermark();
+        this.lowWatermark = server.getConfig().writeLowWatermark();
+        List<RateLimit> inboundRateLimits = server.getConfig().inboundRateLimits();
+        this.inboundBuckets = new TokenBucket[inboundRateLimits.size()];
+        int rate = 0;
+        int burst = 0;
+        for (int i = 0; i < inboundBuckets.length; i++) {
+            inboundBuckets[i] = new TokenBucket(inboundRateLimits.get(i));
+            rate += inboundRateLimits.get(i).rate();
+            burst += inboundRateLimits.get(i).burst();
+        }
+        this.inflateBucket = inboundBuckets.length > 0 ? new TokenBucket(new RateLimit(rate, burst)) : null;
+    }
+
+    /**
+     * Take a token from the bucket limiting the given class of message received from the client.
+     * <p>
+     * Must only be called while handling a read of the channel.
+     *
+     * @param messageClass the class of the message received
+     * @return true if the message can be handled, false if it exceeds the rate limit of its class
+     */
+    boolean tryReceive(int messageClass) {
+        return inboundBuckets[messageClass].tryTake(System.nanoTime());
+    }
+
+    /**
+     * Take a token from the bucket limiting the compressed messages received from the client,
+     * before the message is inflated and can be classified.
+     * <p>
+     * Must only be called while handling a read of the channel.
+     *
+     * @return true if the message can be inflated, false if the client sends too many compressed messages
+     */
+    boolean tryInflate() {
+        return inflateBucket == null || inflateBucket.tryTake(System.nanoTime());
     }
 
     /**
@@ -58,21 +268,375 @@ public class WebSocketChannel<T> {
     }
 
     /**
-     * Returns the underlying AsynchronousSocketChannel.
+     * Returns the id of the channel, unique for the lifetime of the server.
+     *
+     * @return The id of the channel.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the underlying connection of the transport.
+     *
+     * @return The underlying connection.
+     */
+    TransportConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns the decoder of the frames received from the client.
+     *
+     * @return The frame decoder of the channel.
+     */
+    FrameDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Returns the assembler of the fragmented messages received from the client.
+     *
+     * @return The message assembler of the channel.
+     */
+    MessageAssembler getAssembler() {
+        return assembler;
+    }
+
+    /**
+     * Returns the parser of the opening handshake.
+     *
+     * @return The handshake parser, or null once the connection has been upgraded.
+     */
+    HandshakeParser getHandshake() {
+        return handshake;
+    }
+
+    /**
+     * Switch the channel to frame mode once the opening handshake is completed.
+     */
+    void completeHandshake() {
+        handshake = null;
+        upgraded = true;
+    }
+
+    /**
+     * Returns the time left to complete the opening handshake.
+     *
+     * @return The time left (in nanoseconds), which is negative once the deadline has passed.
+     */
+    long handshakeTimeLeft() {
+        return handshakeDeadline - System.nanoTime();
+    }
+
+    /**
+     * Returns the permessage-deflate extension negotiated during the handshake.
+     *
+     * @return The negotiated extension, or null if none.
+     */
+    PerMessageDeflate getPerMessageDeflate() {
+        return perMessageDeflate;
+    }
+
+    /**
+     * Set the permessage-deflate extension negotiated during the handshake.
+     *
+     * @param perMessageDeflate The negotiated extension, or null if none.
+     */
+    void setPerMessageDeflate(PerMessageDeflate perMessageDeflate) {
+        this.perMessageDeflate = perMessageDeflate;
+    }
+
+    /**
+     * Returns the subprotocol selected during the opening handshake.
+     *
+     * @return The selected subprotocol, or null if the channel speaks the bare protocol.
+     */
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    /**
+     * Set the subprotocol selected during the opening handshake.
+     *
+     * @param subprotocol The selected subprotocol, or null if none.
+     */
+    void setSubprotocol(String subprotocol) {
+        this.subprotocol = subprotocol;
+    }
+
+    /**
+     * Returns the scheduler of the underlying connection, running the timers of the channel on its thread.
+     *
+     * @return The scheduler of the connection, or null if the transport has none.
+     */
+    Scheduler getScheduler() {
+        return connection.scheduler();
+    }
+
+    /**
+     * Returns the keep-alive timeout of the channel.
+     *
+     * @return The keep-alive timeout, or null if the channel is not watched.
+     */
+    Timeout getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Set the keep-alive timeout of the channel.
      *
-     * @return The underlying AsynchronousSocketChannel.
+     * @param keepAlive The keep-alive timeout.
      */
-    AsynchronousSocketChannel getAsyncChannel() {
-        return channel;
+    void setKeepAlive(Timeout keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Whether a ping has been sent to the client and no pong has been received since.
+     *
+     * @return true if a pong is awaited, false otherwise.
+     */
+    boolean isAwaitingPong() {
+        return awaitingPong;
+    }
+
+    /**
+     * Set whether a pong is awaited from the client.
+     *
+     * @param awaitingPong Whether a pong is awaited.
+     */
+    void setAwaitingPong(boolean awaitingPong) {
+        this.awaitingPong = awaitingPong;
+    }
+
+    /**
+     * Whether a message of the given size would be compressed before being sent to the client.
+     *
+     * @param length The size of the message (in bytes).
+     * @return true if the message would be compressed, false otherwise.
+     */
+    boolean compresses(int length) {
+        PerMessageDeflate deflate = perMessageDeflate;
+        return deflate != null && deflate.shouldCompress(length);
+    }
+
+    /**
+     * Give back the buffers used to read messages from the client.
+     * <p>
+     * Must only be called by the reading side, once no more read will be started.
+     */
+    void releaseReadBuffers() {
+        decoder.release();
+        assembler.release();
+    }
+
+    /**
+     * Whether the channel is closed or about to be closed by the server.
+     * <p>
+     * No more message should be read from a closing channel.
+     *
+     * @return true if the channel is closing, false otherwise.
+     */
+    public boolean isClosing() {
+        return closing || !connection.isOpen();
+    }
+
+    /**
+     * Reject the connection with an HTTP response, before it is upgraded to the WebSocket protocol.
+     * <p>
+     * The channel is closed once the response has been written.
+     *
+     * @param response The HTTP response to send.
+     */
+    void reject(ByteBuffer response) {
+        closing = true;
+        enqueue(new OutboundFrame(response.duplicate(), null, true));
     }
 
     /**
      * Send a byte buffer to the client through the WebSocket channel.
+     * <p>
+     * The buffer itself is never consumed: the write works on its own view of the content,
+     * which allows the same encoded frame to be sent to several channels at once.
      *
      * @param buffer The byte buffer to send
      */
     public void sendBytes(ByteBuffer buffer) {
-        server.startWrite(this, buffer);
+        enqueue(new OutboundFrame(buffer.duplicate(), null));
+    }
+
+    /**
+     * Send a pooled frame to the client through the WebSocket channel.
+     * <p>
+     * The channel retains its own reference to the frame until it has been written,
+     * the caller remains responsible for releasing its reference.
+     *
+     * @param frame The pooled frame to send
+     */
+    public void sendFrame(PooledBuffer frame) {
+        enqueue(new OutboundFrame(frame.view(), frame.retain()));
+    }
+
+    /**
+     * Queue a frame toward the client and start writing it if no write is in flight,
+     * or once the current thread is done handling an inbound message if writes are batched.
+     * <p>
+     * A channel whose queue keeps growing far beyond its high watermark is evicted right away,
+     * otherwise its slow consumer timeout is armed when it becomes congested.
+     * <p>
+     * Once a close frame has been queued, the data frames are dropped instead.
+     *
+     * @param frame The frame to queue.
+     */
+    private void enqueue(OutboundFrame frame) {
+        if (evicted || (lastQueued && !frame.last())) {
+            frame.release();
+            return;
+        }
+        if (frame.last())
+            lastQueued = true;
+        long queued = queuedBytes.addAndGet(frame.length());
+        writeQueue.offer(frame);
+        if (queued > highWatermark) {
+            if (queued > (long) highWatermark * MAX_QUEUED_FACTOR)
+                evict();
+            else if (congestion.get() == null)
+                onCongested();
+        }
+        if (!WriteBatch.defer(this))
+            flush();
+    }
+
+    /**
+     * Whether too many bytes are queued toward the client for droppable messages to be sent to it.
+     * <p>
+     * The channel is congested once its queue goes above the high watermark,
+     * until the queue drains below the low watermark.
+     *
+     * @return true if the channel is congested, false otherwise.
+     */
+    boolean isCongested() {
+        return congestion.get() != null || queuedBytes.get() > highWatermark;
+    }
+
+    /**
+     * Returns the number of bytes queued toward the client and not written yet.
+     *
+     * @return The number of queued bytes.
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Arm the slow consumer timeout of the channel when it becomes congested.
+     */
+    private void onCongested() {
+        Timeout timeout = server.watchCongestion(this);
+        if (!congestion.compareAndSet(null, timeout))
+            timeout.cancel();
+    }
+
+    /**
+     * Called when the slow consumer timeout of the channel expires.
+     * <p>
+     * The channel is evicted if its queue has not drained below the low watermark since it became congested.
+     */
+    void onSlowConsumerTimeout() {
+        Timeout timeout = congestion.get();
+        // The channel drained in the meantime, and may have been armed with a new timeout since
+        if (timeout == null || !timeout.isExpired()) return;
+        if (queuedBytes.get() >= lowWatermark)
+            evict();
+        else
+            congestion.compareAndSet(timeout, null);
+    }
+
+    /**
+     * Evict a client that cannot keep up with the messages sent to it.
+     * <p>
+     * The frames it has not received yet are dropped, and the connection is failed with
+     * {@link CloseStatusCode#TRY_AGAIN_LATER}. As a stalled client may never read the close frame,
+     * the channel is terminated anyway once the slow consumer timeout expires again.
+     */
+    void evict() {
+        if (isClosing()) return;
+        LOG.warn("A client cannot keep up with its messages... closing channel", "conn", id);
+        closing = true;
+        OutboundFrame frame;
+        while ((frame = writeQueue.poll()) != null) {
+            queuedBytes.addAndGet(-frame.length());
+            frame.release();
+        }
+        close(CloseStatusCode.TRY_AGAIN_LATER, "Slow consumer");
+        evicted = true;
+        server.watchEviction(this);
+    }
+
+    /**
+     * Start writing the queued buffers if no write is currently in flight.
+     * <p>
+     * All the buffers that piled up since the last write are flushed together
+     * using a single gathering write. A frame queued concurrently behind the close frame is never written.
+     */
+    void flush() {
+        // Retry if buffers were queued while the previous write was completing
+        while (!writeQueue.isEmpty() && writing.compareAndSet(false, true)) {
+            List<OutboundFrame> pending = new ArrayList<>();
+            OutboundFrame next;
+            while (pending.size() < MAX_GATHERED_BUFFERS && (next = writeQueue.poll()) != null) {
+                if (lastFlushed) {
+                    queuedBytes.addAndGet(-next.length());
+                    next.release();
+                    continue;
+                }
+                pending.add(next);
+                lastFlushed = next.last();
+            }
+            if (!pending.isEmpty() && connection.isOpen()) {
+                OutboundFrame[] frames = pending.toArray(OutboundFrame[]::new);
+                ByteBuffer[] buffers = Arrays.stream(frames).map(OutboundFrame::buffer).toArray(ByteBuffer[]::new);
+                connection.write(buffers, new ChannelWriteHandler<>(this, frames));
+                return;
+            }
+            pending.forEach(OutboundFrame::release);
+            writing.set(false);
+        }
+    }
+
+    /**
+     * Called once the in-flight write has fully completed.
+     * <p>
+     * Release the written frames and the write lock, and flush the buffers queued in the meantime.
+     *
+     * @param frames     The frames that have been written.
+     * @param startNanos The time (as given by {@link System#nanoTime()}) the write has been started.
+     */
+    void onWriteCompleted(OutboundFrame[] frames, long startNanos) {
+        long written = 0;
+        boolean lastWritten = false;
+        for (OutboundFrame frame : frames) {
+            written += frame.length();
+            lastWritten |= frame.last();
+            frame.release();
+        }
+        // The client is keeping up again
+        if (queuedBytes.addAndGet(-written) < lowWatermark) {
+            Timeout timeout = congestion.getAndSet(null);
+            if (timeout != null)
+                timeout.cancel();
+        }
+        PipelineMetrics metrics = server.getPipelineMetrics();
+        metrics.write.recordSince(startNanos);
+        metrics.framesSent.add(frames.length);
+        metrics.bytesSent.add(written);
+        writing.set(false);
+        // The close frame of a failed connection has been written, the frames queued before it with it
+        if (closing && lastWritten)
+            terminate();
+        else
+            flush();
     }
 
     /**
@@ -81,7 +645,57 @@ public class WebSocketChannel<T> {
      * @param message The text message to send.
      */
     public void sendText(String message) {
-        sendBytes(RFC6455.encodeTextFrame(message));
+        sendData(OpCode.TEXT, message.getBytes());
+    }
+
+    /**
+     * Send a text message to the client through the WebSocket channel,
+     * unless it is droppable and the channel is congested.
+     *
+     * @param message   The text message to send.
+     * @param droppable Whether the message can be dropped when the client does not keep up.
+     */
+    public void sendText(String message, boolean droppable) {
+        if (droppable && isCongested()) return;
+        sendText(message);
+    }
+
+    /**
+     * Send a binary message to the client through the WebSocket channel.
+     *
+     * @param message The binary message to send.
+     */
+    public void sendBinary(byte[] message) {
+        sendData(OpCode.BINARY, message);
+    }
+
+    /**
+     * Send a data message to the client through the WebSocket channel,
+     * compressing it if the permessage-deflate extension has been negotiated.
+     *
+     * @param opCode The opcode of the message.
+     * @param data   The data of the message.
+     */
+    void sendData(OpCode opCode, byte[] data) {
+        PerMessageDeflate deflate = perMessageDeflate;
+        long start = System.nanoTime();
+        if (deflate != null && deflate.shouldCompress(data.length)) {
+            // Messages must be queued in the order they have been compressed
+            synchronized (deflate) {
+                byte[] compressed = deflate.compress(data);
+                // The connection has been terminated in the meantime
+                if (compressed == null) return;
+                PooledBuffer frame = RFC6455.encodeFrame(opCode, compressed, true, server.getBufferPool());
+                server.getPipelineMetrics().encode.recordSince(start);
+                sendFrame(frame);
+                frame.release();
+            }
+            return;
+        }
+        PooledBuffer frame = RFC6455.encodeFrame(opCode, data, server.getBufferPool());
+        server.getPipelineMetrics().encode.recordSince(start);
+        sendFrame(frame);
+        frame.release();
     }
 
     /**
@@ -107,7 +721,24 @@ public class WebSocketChannel<T> {
      * @param reason The close reason.
      */
     public void close(CloseStatusCode code, String reason) {
-        sendBytes(RFC6455.encodeCloseFrame(code, reason));
+        PooledBuffer frame = RFC6455.encodeCloseFrame(code, reason, server.getBufferPool());
+        enqueue(new OutboundFrame(frame.view(), frame.retain(), true));
+        frame.release();
+    }
+
+    /**
+     * Fail the WebSocket connection.
+     * <p>
+     * A close frame is sent to the client with the given status code and reason,
+     * and the channel is terminated once the frame has been written.
+     *
+     * @param code   The close status code.
+     * @param reason The close reason.
+     */
+    public void fail(CloseStatusCode code, String reason) {
+        if (isClosing()) return;
+        closing = true;
+        close(code, reason);
     }
 
     /**
@@ -117,17 +748,44 @@ public class WebSocketChannel<T> {
      * @param message The text message to broadcast.
      */
     public void broadcast(String id, String message) {
-        server.broadcastTo(id, RFC6455.encodeTextFrame(message));
+        server.broadcastTo(id, message);
+    }
+
+    /**
+     * Broadcast a text message to all clients subscribed to the given broadcast channel id,
+     * skipping the congested ones if the message is droppable.
+     *
+     * @param id        The broadcast channel id.
+     * @param message   The text message to broadcast.
+     * @param droppable Whether the message can be dropped for the clients that do not keep up.
+     */
+    public void broadcast(String id, String message, boolean droppable) {
+        server.broadcastTo(id, message, droppable);
     }
 
     /**
-     * Broadcast a byte buffer to all clients subscribed to the given broadcast channel id.
+     * Broadcast a message to all clients subscribed to the given broadcast channel id,
+     * as a binary message to the clients speaking the given subprotocol and as a text message to the others.
      *
-     * @param id     The broadcast channel id.
-     * @param buffer The byte buffer to broadcast.
+     * @param id            The broadcast channel id.
+     * @param message       The text message to broadcast.
+     * @param subprotocol   The subprotocol of the clients receiving the binary message.
+     * @param binaryMessage The builder of the binary message, only called if a client speaks the subprotocol.
+     * @param droppable     Whether the message can be dropped for the clients that do not keep up.
      */
-    public void broadcast(String id, ByteBuffer buffer) {
-        server.broadcastTo(id, buffer);
+    public void broadcast(String id, String message, String subprotocol, Supplier<byte[]> binaryMessage,
+                          boolean droppable) {
+        server.broadcastTo(id, message, subprotocol, binaryMessage, droppable);
+    }
+
+    /**
+     * Broadcast an already encoded frame to all clients subscribed to the given broadcast channel id.
+     *
+     * @param id    The broadcast channel id.
+     * @param frame The encoded frame to broadcast.
+     */
+    public void broadcast(String id, ByteBuffer frame) {
+        server.broadcastFrame(id, frame);
     }
 
     /**
@@ -154,27 +812,46 @@ public class WebSocketChannel<T> {
      * This is the last part of the closing handshake.
      */
     public void terminate() {
-        // Close the channel on the server side only if it is still open
-        if (channel.isOpen()) {
+        // Close the channel on the server side only once, and only if it is still open
+        if (terminated.compareAndSet(false, true) && connection.isOpen()) {
             try {
-                server.onClose(this);
-                channel.close();
+                // Only the connections the server has been notified of are closed as WebSocket connections
+                if (upgraded)
+                    server.onClose(this);
+                connection.close();
             } catch (IOException _) {
                 // Ignore
             }
         }
+        // Give back the connection to the admission control, only once
+        ConnectionAdmission.Address address = admission.getAndSet(null);
+        if (address != null)
+            server.getAdmission().release(address);
+        // Give back the compressors of the connection
+        PerMessageDeflate deflate = perMessageDeflate;
+        if (deflate != null)
+            deflate.release();
+        Timeout timeout = congestion.getAndSet(null);
+        if (timeout != null)
+            timeout.cancel();
+        // Drop the frames that will never be sent
+        OutboundFrame frame;
+        while ((frame = writeQueue.poll()) != null) {
+            queuedBytes.addAndGet(-frame.length());
+            frame.release();
+        }
     }
 
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof WebSocketChannel<?> ws) {
-            return ws.channel.equals(channel);
+            return ws.connection.equals(connection);
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return channel.hashCode();
+        return connection.hashCode();
     }
 }
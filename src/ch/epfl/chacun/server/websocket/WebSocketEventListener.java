@@ -24,6 +24,19 @@ public abstract class WebSocketEventListener<T> {
      */
     abstract protected void onMessage(WebSocketChannel<T> ws, String message);
 
+    /**
+     * Called when a text message is received, with a view on the decoded text.
+     * <p>
+     * The view is only valid during the call. Handlers that do not need a {@code String}
+     * can override this method to avoid copying the text, by default it is converted to a string.
+     *
+     * @param ws      The channel of the connection.
+     * @param message The message received.
+     */
+    protected void onMessage(WebSocketChannel<T> ws, CharSequence message) {
+        onMessage(ws, message.toString());
+    }
+
     /**
      * Called when a binary message is received.
      *
@@ -0,0 +1,69 @@
+package ch.epfl.chacun.server.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the channels written to by a thread while it handles the bytes read from a client,
+ * so that each of them is flushed only once, with a single gathering write, at the end of the handling.
+ * <p>
+ * A response, a broadcast and their follow-ups produced by the same inbound message
+ * then leave in the same write instead of one write each.
+ *
+ * @author Maxence Espagnet (sciper: 372808)
+ */
+final class WriteBatch {
+
+    /**
+     * The batch open on the current thread, if any.
+     */
+    private static final ThreadLocal<WriteBatch> CURRENT = new ThreadLocal<>();
+
+    /**
+     * The channels whose flush has been deferred, in the order they were first written to.
+     * <p>
+     * A message only reaches a handful of channels, a linear scan is cheaper than hashing them.
+     */
+    private final List<WebSocketChannel<?>> channels = new ArrayList<>();
+
+    private WriteBatch() {
+    }
+
+    /**
+     * Open a batch on the current thread.
+     *
+     * @return the batch, or null if a batch is already open on the current thread
+     */
+    static WriteBatch open() {
+        if (CURRENT.get() != null) return null;
+        WriteBatch batch = new WriteBatch();
+        CURRENT.set(batch);
+        return batch;
+    }
+
+    /**
+     * Defer the flush of a channel to the end of the batch open on the current thread.
+     *
+     * @param channel the channel written to
+     * @return true if the flush has been deferred, false if no batch is open and the channel must be flushed now
+     */
+    static boolean defer(WebSocketChannel<?> channel) {
+        WriteBatch batch = CURRENT.get();
+        if (batch == null) return false;
+        for (WebSocketChannel<?> deferred : batch.channels) {
+            if (deferred == channel) return true;
+        }
+        batch.channels.add(channel);
+        return true;
+    }
+
+    /**
+     * Close the batch and flush every channel written to while it was open.
+     */
+    void close() {
+        CURRENT.remove();
+        for (WebSocketChannel<?> channel : channels) {
+            channel.flush();
+        }
+    }
+}